@@ -0,0 +1,194 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import game.GameEngine;
+import game.Ghost;
+import game.GhostRecorder;
+import game.LapCompletedListener;
+import motive.CommandStreamManager;
+import motive.MotiveEndpoint;
+import motive.MotiveVersion;
+import motive.SyntheticFrameSource;
+
+/**
+ * Checks that the steady-state hot path allocates nothing: parsing a
+ * frame, dispatching its rigid bodies to the game's listeners (engine,
+ * lap timer, trajectories, kinematics, track monitor, ghost recorder and
+ * collision detector) and advancing the game.
+ *
+ * For each Motive version, synthetic frames are encoded and passed to a
+ * CommandStreamManager's processPacket, and the engine is ticked after
+ * each frame. After a warmup (so the JIT has compiled the path), the
+ * bytes allocated by this thread in each frame are measured with
+ * com.sun.management.ThreadMXBean.
+ *
+ * A lap that beats a body's best is the one event on the path that must
+ * allocate: the ghost recorder copies the lap into a Ghost. Frames in
+ * which a body sets a new best are checked separately, against an
+ * allowance for each new Ghost (its samples plus a fixed overhead); every
+ * other frame is held to the budget. The harness exits with status 1 if
+ * any version allocates more than the budget per frame, or its new best
+ * laps more than their allowance.
+ *
+ * Supported arguments:
+ *   --frames=N   the number of measured frames per version (default 2000000)
+ *   --bodies=N   the number of rigid bodies per frame (default 10)
+ *   --budget=B   the bytes each frame may allocate (default 0)
+ */
+public class AllocationHarness {
+
+    // long enough for rare paths, such as lap completions, to be compiled
+    private static final int WARMUP_FRAMES = 500_000;
+    // frames are timed as if Motive streamed at this rate, so lap times
+    // don't depend on how fast the harness runs
+    private static final long FRAME_PERIOD = 1_000_000_000L / 360;
+
+    // the bytes a new best lap may allocate: its Ghost's time offset (4
+    // bytes) and X and Y (4 bytes each) for every sample, plus the arrays'
+    // headers, the buffers wrapping them and the Ghost itself
+    private static final int GHOST_BYTES_PER_SAMPLE = 12;
+    private static final int GHOST_OVERHEAD = 512;
+
+    /**
+     * What a version's frames allocated
+     */
+    private static class Measurement {
+        // bytes allocated by frames without a new best lap, per frame
+        double bytesPerFrame;
+        // the number of new best laps, the bytes allocated by the frames
+        // they were set in and the bytes those frames were allowed
+        long newBestLaps;
+        long newBestLapBytes;
+        long newBestLapAllowance;
+    }
+
+    /**
+     * Counts the ghosts a frame's new best laps create. Registered with the
+     * lap timer after the ghost recorder, so it sees each ghost once it's
+     * been kept.
+     */
+    private static class NewBestLapCounter implements LapCompletedListener {
+        private final GhostRecorder ghosts;
+        private final Ghost[] bestLaps;
+        // the ghosts created, and their samples, since the last reset
+        int created;
+        long samples;
+
+        NewBestLapCounter(GhostRecorder ghosts, int bodies) {
+            this.ghosts = ghosts;
+            bestLaps = new Ghost[bodies];
+        }
+
+        @Override
+        public void lapCompleted(int id, int lap, long lapTime) {
+            final Ghost best = ghosts.getBestLap(id);
+            if (id < bestLaps.length && best != bestLaps[id]) {
+                bestLaps[id] = best;
+                created++;
+                samples += best.getSampleCount();
+            }
+        }
+
+        void reset() {
+            created = 0;
+            samples = 0;
+        }
+    }
+
+    public static void main(String[] args) {
+        int frames = 2_000_000;
+        int bodies = 10;
+        double budget = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--frames=")) {
+                frames = Integer.parseInt(arg.substring("--frames=".length()));
+            } else if (arg.startsWith("--bodies=")) {
+                bodies = Integer.parseInt(arg.substring("--bodies=".length()));
+            } else if (arg.startsWith("--budget=")) {
+                budget = Double.parseDouble(arg.substring("--budget=".length()));
+            } else {
+                System.out.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Per-thread allocation counting isn't supported by this JVM");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        boolean passed = true;
+        System.out.printf("%-8s %12s %14s %10s %22s%n", "version", "frames", "bytes/frame",
+                "new bests", "new best bytes/allowed");
+        for (MotiveVersion version : MotiveVersion.values()) {
+            Measurement measurement = measure(threads, version, bodies, frames);
+            boolean ok = measurement.bytesPerFrame <= budget
+                    && measurement.newBestLapBytes <= measurement.newBestLapAllowance;
+            passed &= ok;
+            System.out.printf("%-8s %12d %14.3f %10d %22s  %s%n", version, frames,
+                    measurement.bytesPerFrame, measurement.newBestLaps,
+                    measurement.newBestLapBytes + "/" + measurement.newBestLapAllowance,
+                    ok ? "ok" : "OVER BUDGET");
+        }
+        if (!passed) {
+            System.out.println("FAILED: the hot path allocates more than " + budget
+                    + " bytes per frame, or new best laps more than their allowance");
+            System.exit(1);
+        }
+        System.out.println("passed");
+    }
+
+    /**
+     * @return what the frames allocated, after warming up
+     */
+    private static Measurement measure(com.sun.management.ThreadMXBean threads,
+            MotiveVersion version, int bodies, int frames) {
+        MotiveEndpoint endpoint = new MotiveEndpoint("harness", "localhost",
+                MotiveEndpoint.DEFAULT_COMMAND_PORT, MotiveEndpoint.DEFAULT_LOCAL_PORT, version);
+        CommandStreamManager manager = new CommandStreamManager(endpoint);
+        GameEngine engine = new GameEngine();
+        // a short gate that the synthetic pattern crosses once per lap,
+        // in the same direction, so laps are timed
+        engine.getLapTimer().addGate(1.0f, 0.78f, 0.7f, 0.78f);
+        engine.registerListeners(manager::addRigidBodyUpdateListener,
+                manager::addFrameUpdateListener);
+        SyntheticFrameSource source = new SyntheticFrameSource(manager, bodies, 0);
+        NewBestLapCounter newBestLaps = new NewBestLapCounter(engine.getGhosts(), bodies);
+        engine.getLapTimer().addLapCompletedListener(newBestLaps);
+        Measurement measurement = new Measurement();
+
+        final long thread = Thread.currentThread().getId();
+        // the measurement itself may allocate; measure that so it's not counted
+        long overhead = threads.getThreadAllocatedBytes(thread);
+        overhead = threads.getThreadAllocatedBytes(thread) - overhead;
+
+        long steadyBytes = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + frames; frame++) {
+            newBestLaps.reset();
+            final long start = threads.getThreadAllocatedBytes(thread);
+            final long time = frame * FRAME_PERIOD;
+            ByteBuffer packet = source.encode(frame, time);
+            manager.processPacket(packet, time);
+            engine.tick();
+            final long allocated = Math.max(0,
+                    threads.getThreadAllocatedBytes(thread) - start - overhead);
+            if (frame < WARMUP_FRAMES) {
+                continue;
+            }
+            if (newBestLaps.created > 0) {
+                measurement.newBestLaps += newBestLaps.created;
+                measurement.newBestLapBytes += allocated;
+                measurement.newBestLapAllowance += newBestLaps.created * GHOST_OVERHEAD
+                        + newBestLaps.samples * GHOST_BYTES_PER_SAMPLE;
+            } else {
+                steadyBytes += allocated;
+            }
+        }
+        measurement.bytesPerFrame = steadyBytes / (double) frames;
+        return measurement;
+    }
+
+}
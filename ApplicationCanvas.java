@@ -2,87 +2,325 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.util.Random;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
 
 import javax.swing.JPanel;
 
-import motive.CommandStreamManager;
-import motive.RigidBodyUpdateListener;
-import vector.Vector2D;
+import game.GameEngine;
+import game.GameRenderer;
+import game.Ghost;
+import game.GhostRecorder;
+import game.LapTimer;
+import game.Track;
+import game.TrajectoryBuffer;
 
-public class ApplicationCanvas extends JPanel implements RigidBodyUpdateListener, MouseListener {
-    
-    private static final boolean TEST_MODE = false;
+/**
+ * This class draws the state of a GameEngine.
+ * 
+ * The game itself runs in the engine; the canvas only schedules a repaint
+ * each time the engine's state changes.
+ * 
+ * Each car's recent path is drawn as a trail, decimated so that points are
+ * a few pixels apart however fast Motive streams.
+ * 
+ * Each car's best lap is replayed as a translucent ghost, starting each
+ * time the car crosses the start/finish line.
+ * 
+ * Static content (the background, room grid, track and gates) is drawn
+ * once into a cached image, which is only redrawn when the canvas is
+ * resized or the room, track or gates change. Each time the engine's
+ * state changes, only the region covering the old and new positions of
+ * the dots that moved is repainted.
+ */
+public class ApplicationCanvas extends JPanel implements GameRenderer, MouseListener {
 
     // the width and height of the canvas, in pixels
     private static final int CANVAS_WIDTH_HEIGHT = 600;
 
-    // the default room lower X and Y limit
-    private static final double ROOM_X_LOWER_LIMIT = -1.0;
-    private static final double ROOM_Y_LOWER_LIMIT = -1.0;
+    // the spacing between room grid lines, in meters
+    private static final double GRID_SPACING = 1.0;
 
-    // the default room length and width
-    private static final double ROOM_LENGTH = 2.0;
-    private static final double ROOM_WIDTH = 2.0;
+    // extra pixels around each dot that are repainted, covering anti-aliasing
+    private static final int DIRTY_REGION_PADDING = 2;
 
-    // the maximum distance before we consider the player having reached the pickup
-    private static final double PICKUP_RADIUS = 0.2;
+    // how much of each car's path is drawn, in nanoseconds
+    private static final long TRAIL_LENGTH = 2_000_000_000L; // 2 seconds
+    // the minimum distance between points of a trail, in pixels
+    private static final int TRAIL_POINT_SPACING = 3;
+    // the maximum number of points drawn per trail
+    private static final int MAX_TRAIL_POINTS = 512;
 
-    private double roomXLowerBound = ROOM_X_LOWER_LIMIT;
-    private double roomYLowerBound = ROOM_Y_LOWER_LIMIT;
-    private double roomWidth = ROOM_WIDTH;
-    private double roomLength = ROOM_LENGTH;
+    private final GameEngine engine;
 
-    private Vector2D playerLocation;
-    private Vector2D pickupLocation;
+    // the cached static layer; a VolatileImage when the canvas is displayable,
+    // otherwise a BufferedImage (for example when running headless)
+    private Image background;
+    private int backgroundWidth;
+    private int backgroundHeight;
+    private int backgroundGateCount;
+    private Track backgroundTrack;
+    private volatile boolean backgroundStale;
 
-    private final Random rng;
+    // the screen location of each dot when its repaint was last scheduled,
+    // guarded by the engine's lock, which is held whenever render() is called
+    private final int[] lastCarScreenX;
+    private final int[] lastCarScreenY;
+    private final boolean[] lastCarDrawn;
+    private int lastPickupScreenX;
+    private int lastPickupScreenY;
+    // the screen bounds of each car's trail when its repaint was last scheduled
+    private final int[] lastTrailMinX;
+    private final int[] lastTrailMinY;
+    private final int[] lastTrailMaxX;
+    private final int[] lastTrailMaxY;
 
-    public ApplicationCanvas() {
+    // the time each car's trail ends at (its newest sample), set by render()
+    // so that paint() draws exactly the trails the dirty region was computed for
+    private final long[] trailEndTimes;
+
+    // the ghost drawn for each car and how far into its lap, set by
+    // render() like the trail end times; null if no ghost is drawn
+    private final Ghost[] renderedGhosts;
+    private final long[] ghostElapsedTimes;
+    private final int[] lastGhostScreenX;
+    private final int[] lastGhostScreenY;
+    private final boolean[] lastGhostDrawn;
+
+    // scratch space for ghost positions, one per thread
+    private final float[] renderGhostPosition = new float[2];
+    private final float[] paintGhostPosition = new float[2];
+
+    // scratch space for trails, one set per thread
+    private final float[] renderTrailX = new float[MAX_TRAIL_POINTS];
+    private final float[] renderTrailY = new float[MAX_TRAIL_POINTS];
+    private final float[] paintTrailX = new float[MAX_TRAIL_POINTS];
+    private final float[] paintTrailY = new float[MAX_TRAIL_POINTS];
+    private final int[] trailScreenX = new int[MAX_TRAIL_POINTS];
+    private final int[] trailScreenY = new int[MAX_TRAIL_POINTS];
+
+    // the region scheduled for repainting by the last call to render()
+    final Rectangle dirtyRegion;
+    // bounds of the region being built by computeDirtyRegion()
+    private int minDirtyX;
+    private int minDirtyY;
+    private int maxDirtyX;
+    private int maxDirtyY;
+
+    // paint timing statistics, accessed only by the Swing event thread
+    private long paintCount;
+    private long totalPaintTime;
+
+    /**
+     * @param engine the engine whose state is drawn
+     * @param testMode if true, clicking the canvas moves car 0
+     */
+    public ApplicationCanvas(GameEngine engine, boolean testMode) {
         // set size of the canvas
         setPreferredSize(new Dimension(CANVAS_WIDTH_HEIGHT, CANVAS_WIDTH_HEIGHT));
-        // start player and pick up at specific coordinates (for testing purposes)
-        playerLocation = new Vector2D(0.75, 0.75);
-        pickupLocation = new Vector2D(-0.75, -0.75);
-        // instantiate the Random object for random number generation
-        rng = new Random();
+        this.engine = engine;
+        lastCarScreenX = new int[GameEngine.MAX_CARS];
+        lastCarScreenY = new int[GameEngine.MAX_CARS];
+        lastCarDrawn = new boolean[GameEngine.MAX_CARS];
+        lastTrailMinX = new int[GameEngine.MAX_CARS];
+        lastTrailMinY = new int[GameEngine.MAX_CARS];
+        lastTrailMaxX = new int[GameEngine.MAX_CARS];
+        lastTrailMaxY = new int[GameEngine.MAX_CARS];
+        trailEndTimes = new long[GameEngine.MAX_CARS];
+        renderedGhosts = new Ghost[GameEngine.MAX_CARS];
+        ghostElapsedTimes = new long[GameEngine.MAX_CARS];
+        lastGhostScreenX = new int[GameEngine.MAX_CARS];
+        lastGhostScreenY = new int[GameEngine.MAX_CARS];
+        lastGhostDrawn = new boolean[GameEngine.MAX_CARS];
+        // start with empty trail bounds
+        Arrays.fill(lastTrailMinX, Integer.MAX_VALUE);
+        Arrays.fill(lastTrailMinY, Integer.MAX_VALUE);
+        Arrays.fill(lastTrailMaxX, Integer.MIN_VALUE);
+        Arrays.fill(lastTrailMaxY, Integer.MIN_VALUE);
+        dirtyRegion = new Rectangle();
+        engine.addRenderer(this);
 
-        if (TEST_MODE) {
+        if (testMode) {
             addMouseListener(this);
-        } else {
-            // begin listening for updates from Motive
-            CommandStreamManager streamManager = new CommandStreamManager();
-            streamManager.addRigidBodyUpdateListener(this);
-            new Thread(streamManager).start();
         }
     }
 
     // colors for the dots drawn to the screen
     private static final Color BACKGROUND_COLOR = new Color(51, 51, 51);
+    private static final Color GRID_COLOR = new Color(68, 68, 68);
     private static final Color PLAYER_DOT_COLOR = new Color(227, 0, 170);
     private static final Color PICKUP_DOT_COLOR = new Color(154, 189, 0);
+    private static final Color GATE_COLOR = new Color(230, 230, 230);
+    private static final Color TRAIL_COLOR = new Color(140, 40, 115);
+    private static final Color TRACK_COLOR = new Color(80, 80, 80);
+    private static final Color OBSTACLE_COLOR = new Color(120, 60, 40);
+    private static final Color GHOST_COLOR = new Color(227, 0, 170, 90);
 
     // radius of the dots drawn to screen, in pixels
     private static final int PLAYER_DOT_RADIUS = 15;
     private static final int PICKUP_DOT_RADIUS = 15;
+    private static final int GHOST_DOT_RADIUS = 15;
 
     @Override
     public void paint(Graphics g) {
+        final long start = System.nanoTime();
+
+        // draw over the previous frame with the cached static layer
+        drawBackground(g);
+
+        // draw each trail beneath the dots (trails aren't anti-aliased,
+        // since anti-aliasing long polylines is expensive)
+        g.setColor(TRAIL_COLOR);
+        for (int id = 0; id < engine.getCarIDLimit(); id++) {
+            if (engine.isCarActive(id)) {
+                drawTrail(g, id);
+            }
+        }
+
         // turn on shape anti-aliasing (reduces jagged pixels)
         setRenderingHints(g);
+
+        // draw each ghost beneath the live cars
+        for (int id = 0; id < engine.getCarIDLimit(); id++) {
+            final Ghost ghost = renderedGhosts[id];
+            if (ghost != null && engine.isCarActive(id)) {
+                ghost.sample(ghostElapsedTimes[id], paintGhostPosition);
+                drawPoint(g, paintGhostPosition[0], paintGhostPosition[1],
+                        GHOST_DOT_RADIUS, GHOST_COLOR);
+            }
+        }
+
+        // draw each dot
+        drawPoint(g, engine.getPickupLocation().x, engine.getPickupLocation().y,
+                PICKUP_DOT_RADIUS, PICKUP_DOT_COLOR);
+        for (int id = 0; id < engine.getCarIDLimit(); id++) {
+            if (engine.isCarActive(id)) {
+                drawPoint(g, engine.getCarX(id), engine.getCarY(id),
+                        PLAYER_DOT_RADIUS, PLAYER_DOT_COLOR);
+            }
+        }
+
+        totalPaintTime += System.nanoTime() - start;
+        paintCount++;
+    }
+
+    /**
+     * @return the mean time taken by paint(), in nanoseconds
+     */
+    public long getMeanPaintTime() {
+        return paintCount == 0 ? 0 : totalPaintTime / paintCount;
+    }
+
+    /**
+     * Draws the cached static layer, first recreating or redrawing it
+     * if the canvas was resized, the room or gates changed, or (for a
+     * VolatileImage) its contents were lost
+     * @param g The Graphics object to draw to
+     */
+    private void drawBackground(Graphics g) {
         final int width = getWidth();
         final int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (background == null || width != backgroundWidth || height != backgroundHeight) {
+            createBackground(width, height);
+        }
+        if (staticLayerChanged()) {
+            backgroundStale = true;
+        }
 
-        // draw over the previous frame with the background color
-        g.setColor(BACKGROUND_COLOR);
-        g.fillRect(0, 0, width, height);
-        
-        // draw each dot
-        drawVectorPoint(g, pickupLocation, PICKUP_DOT_RADIUS, PICKUP_DOT_COLOR);
-        drawVectorPoint(g, playerLocation, PLAYER_DOT_RADIUS, PLAYER_DOT_COLOR);
+        if (!(background instanceof VolatileImage)) {
+            if (backgroundStale) {
+                drawStaticLayer();
+            }
+            g.drawImage(background, 0, 0, null);
+            return;
+        }
+        VolatileImage image = (VolatileImage) background;
+        do {
+            int status = image.validate(getGraphicsConfiguration());
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                createBackground(width, height);
+                image = (VolatileImage) background;
+            }
+            if (status != VolatileImage.IMAGE_OK || backgroundStale) {
+                drawStaticLayer();
+            }
+            g.drawImage(image, 0, 0, null);
+        } while (image.contentsLost());
+    }
+
+    /**
+     * Creates a new static layer image of the given size
+     */
+    private void createBackground(int width, int height) {
+        if (background != null) {
+            background.flush();
+        }
+        background = createVolatileImage(width, height);
+        if (background == null) {
+            // the canvas isn't displayable, so fall back to a regular image
+            background = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        backgroundWidth = width;
+        backgroundHeight = height;
+        backgroundStale = true;
+    }
+
+    /**
+     * @return true if the gates or track changed since the static layer
+     * was drawn
+     */
+    private boolean staticLayerChanged() {
+        return engine.getLapTimer().getGateCount() != backgroundGateCount
+                || engine.getTrack() != backgroundTrack;
+    }
+
+    /**
+     * Draws the background, room grid, track and gates into the static layer
+     */
+    private void drawStaticLayer() {
+        backgroundStale = false;
+        backgroundGateCount = engine.getLapTimer().getGateCount();
+        backgroundTrack = engine.getTrack();
+        Graphics g = background.getGraphics();
+        try {
+            g.setColor(BACKGROUND_COLOR);
+            g.fillRect(0, 0, backgroundWidth, backgroundHeight);
+            drawTrack(g, backgroundTrack);
+            drawGrid(g);
+            setRenderingHints(g);
+            drawGates(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Draws a line every GRID_SPACING meters across the room
+     * @param g The Graphics object to draw to
+     */
+    private void drawGrid(Graphics g) {
+        final double xLower = engine.getRoomXLowerBound();
+        final double yLower = engine.getRoomYLowerBound();
+        g.setColor(GRID_COLOR);
+        for (double x = Math.ceil(xLower / GRID_SPACING) * GRID_SPACING;
+                x <= xLower + engine.getRoomWidth(); x += GRID_SPACING) {
+            int screenX = coordinate3dToScreenCoordinateX(x);
+            g.drawLine(screenX, 0, screenX, backgroundHeight);
+        }
+        for (double y = Math.ceil(yLower / GRID_SPACING) * GRID_SPACING;
+                y <= yLower + engine.getRoomLength(); y += GRID_SPACING) {
+            int screenY = coordinate3dToScreenCoordinateY(y);
+            g.drawLine(0, screenY, backgroundWidth, screenY);
+        }
     }
 
     /**
@@ -98,20 +336,95 @@ public class ApplicationCanvas extends JPanel implements RigidBodyUpdateListener
     /**
      * Draws a dot to the screen, translating room coordinates to screen coordinates
      * @param g The Graphics object to draw to
-     * @param v The 3D vector to draw
+     * @param roomX The X coordinate of the point to draw
+     * @param roomY The Y coordinate of the point to draw
      * @param radius The radius of the point to draw
      * @param color The color to draw the point in
      */
-    private void drawVectorPoint(Graphics g, Vector2D v, int radius, Color color) {
-        int x = coordinate3dToScreenCoordinateX(v.x);
-        int y = coordinate3dToScreenCoordinateY(v.y);
+    private void drawPoint(Graphics g, double roomX, double roomY, int radius, Color color) {
+        int x = coordinate3dToScreenCoordinateX(roomX);
+        int y = coordinate3dToScreenCoordinateY(roomY);
         x -= radius + 1;
         y -= radius + 1;
         final int diameter = (radius * 2) + 1;
+        if (!g.hitClip(x, y, diameter, diameter)) {
+            // outside the region being repainted
+            return;
+        }
         g.setColor(color);
         g.fillOval(x, y, diameter, diameter);
     }
 
+    /**
+     * Draws a car's recent path as a line
+     * @param g The Graphics object to draw to
+     * @param id The car's body id
+     */
+    private void drawTrail(Graphics g, int id) {
+        final int points = decimateTrail(id, paintTrailX, paintTrailY);
+        for (int i = 0; i < points; i++) {
+            trailScreenX[i] = coordinate3dToScreenCoordinateX(paintTrailX[i]);
+            trailScreenY[i] = coordinate3dToScreenCoordinateY(paintTrailY[i]);
+        }
+        if (points > 1) {
+            g.drawPolyline(trailScreenX, trailScreenY, points);
+        }
+    }
+
+    /**
+     * Copies a car's decimated trail, ending at its trail end time, into the given arrays
+     * @return the number of points copied
+     */
+    private int decimateTrail(int id, float[] outX, float[] outY) {
+        final float minDistance = (float) (TRAIL_POINT_SPACING * engine.getRoomWidth()
+                / Math.max(getWidth(), 1));
+        return engine.getTrajectories().decimate(id, trailEndTimes[id], TRAIL_LENGTH,
+                minDistance, outX, outY);
+    }
+
+    /**
+     * Fills the track, then its infield and obstacles
+     * @param g The Graphics object to draw to
+     * @param track the track, or null
+     */
+    private void drawTrack(Graphics g, Track track) {
+        if (track == null) {
+            return;
+        }
+        for (int polygon = 0; polygon < track.getPolygonCount(); polygon++) {
+            if (polygon == 0) {
+                g.setColor(TRACK_COLOR);
+            } else if (polygon == 1 && track.hasInnerBoundary()) {
+                g.setColor(BACKGROUND_COLOR);
+            } else {
+                g.setColor(OBSTACLE_COLOR);
+            }
+            final int vertices = track.getVertexCount(polygon);
+            int[] xs = new int[vertices];
+            int[] ys = new int[vertices];
+            for (int v = 0; v < vertices; v++) {
+                xs[v] = coordinate3dToScreenCoordinateX(track.getVertexX(polygon, v));
+                ys[v] = coordinate3dToScreenCoordinateY(track.getVertexY(polygon, v));
+            }
+            g.fillPolygon(xs, ys, vertices);
+        }
+    }
+
+    /**
+     * Draws each of the lap timer's gates as a line
+     * @param g The Graphics object to draw to
+     */
+    private void drawGates(Graphics g) {
+        LapTimer lapTimer = engine.getLapTimer();
+        g.setColor(GATE_COLOR);
+        for (int gate = 0; gate < lapTimer.getGateCount(); gate++) {
+            g.drawLine(coordinate3dToScreenCoordinateX(lapTimer.getGateX1(gate)),
+                    coordinate3dToScreenCoordinateY(lapTimer.getGateY1(gate)),
+                    coordinate3dToScreenCoordinateX(lapTimer.getGateX2(gate)),
+                    coordinate3dToScreenCoordinateY(lapTimer.getGateY2(gate)));
+        }
+    }
+
     /**
      * Converts a 3d coordinate's X coordinate to a screen coordinate
      * @param x the X coordinate to translate
@@ -119,7 +432,7 @@ public class ApplicationCanvas extends JPanel implements RigidBodyUpdateListener
      */
     private int coordinate3dToScreenCoordinateX(double x) {
         final int canvasWidth = getWidth();
-        return (int) ((x - roomXLowerBound) / roomWidth * canvasWidth);
+        return (int) ((x - engine.getRoomXLowerBound()) / engine.getRoomWidth() * canvasWidth);
     }
 
     /**
@@ -129,11 +442,11 @@ public class ApplicationCanvas extends JPanel implements RigidBodyUpdateListener
      */
     private int coordinate3dToScreenCoordinateY(double y) {
         final int canvasHeight = getHeight();
-        return (int) -((y + roomYLowerBound) / roomLength * canvasHeight);
+        return (int) -((y + engine.getRoomYLowerBound()) / engine.getRoomLength() * canvasHeight);
     }
 
     /**
-     * Updates the room dimensions used by the application and then
+     * Updates the room dimensions used by the game, which
      * redraws the scene.
      * @param xLowerBound the left-most X coordinate that should correlate to the left of the screen
      * @param yLowerBound the bottom-most Y coordinate that should correlate to the bottom of the screen
@@ -141,30 +454,169 @@ public class ApplicationCanvas extends JPanel implements RigidBodyUpdateListener
      * @param length the height of the room
      */
     public void setRoomDimensions(double xLowerBound, double yLowerBound, double width, double length) {
-        roomXLowerBound = xLowerBound;
-        roomYLowerBound = yLowerBound;
-        roomWidth = width;
-        roomLength = length;
+        backgroundStale = true;
+        engine.setRoomDimensions(xLowerBound, yLowerBound, width, length);
+        // every dot moves on screen, so the whole canvas is redrawn
         repaint();
     }
 
     /**
-     * Method called by motive when the RC vehicle's location is updated
+     * Method called by the engine when the game's state changes
      */
     @Override
-    public void update(int id, float x, float y, float z) {
-        // Update the player location, and the z coordinate of the pickup
-        playerLocation.x = x;
-        playerLocation.y = y;
-
-        // Move the pick up if the player is near it
-        // (use a loop so that the pickup doesn't spawn under the player)
-        while (playerLocation.distanceFrom(pickupLocation) < PICKUP_RADIUS) {
-            pickupLocation.x = rng.nextDouble() * roomWidth + roomXLowerBound;
-            pickupLocation.y = rng.nextDouble() * roomLength + roomYLowerBound;
-        }
-        // Redraw the canvas with the updated scene information
-        repaint();
+    public void render(GameEngine engine) {
+        if (staticLayerChanged()) {
+            // the static layer changed, so the whole canvas is redrawn
+            backgroundStale = true;
+            computeDirtyRegion();
+            repaint();
+            return;
+        }
+        // Redraw the part of the canvas that changed
+        if (computeDirtyRegion()) {
+            repaint(dirtyRegion);
+        }
+    }
+
+    /**
+     * Computes the union of the old and new bounds of each dot that moved
+     * since the last call, storing it in dirtyRegion
+     * @return true if any dot moved
+     */
+    boolean computeDirtyRegion() {
+        minDirtyX = Integer.MAX_VALUE;
+        minDirtyY = Integer.MAX_VALUE;
+        maxDirtyX = Integer.MIN_VALUE;
+        maxDirtyY = Integer.MIN_VALUE;
+
+        int x = coordinate3dToScreenCoordinateX(engine.getPickupLocation().x);
+        int y = coordinate3dToScreenCoordinateY(engine.getPickupLocation().y);
+        if (x != lastPickupScreenX || y != lastPickupScreenY) {
+            addDirtyDot(lastPickupScreenX, lastPickupScreenY, PICKUP_DOT_RADIUS);
+            addDirtyDot(x, y, PICKUP_DOT_RADIUS);
+            lastPickupScreenX = x;
+            lastPickupScreenY = y;
+        }
+        for (int id = 0; id < engine.getCarIDLimit(); id++) {
+            if (!engine.isCarActive(id)) {
+                continue;
+            }
+            updateTrailBounds(id);
+            updateGhost(id);
+            x = coordinate3dToScreenCoordinateX(engine.getCarX(id));
+            y = coordinate3dToScreenCoordinateY(engine.getCarY(id));
+            if (lastCarDrawn[id]) {
+                if (x == lastCarScreenX[id] && y == lastCarScreenY[id]) {
+                    continue;
+                }
+                addDirtyDot(lastCarScreenX[id], lastCarScreenY[id], PLAYER_DOT_RADIUS);
+            }
+            addDirtyDot(x, y, PLAYER_DOT_RADIUS);
+            lastCarScreenX[id] = x;
+            lastCarScreenY[id] = y;
+            lastCarDrawn[id] = true;
+        }
+
+        if (minDirtyX > maxDirtyX) {
+            return false;
+        }
+        dirtyRegion.setBounds(minDirtyX, minDirtyY,
+                maxDirtyX - minDirtyX, maxDirtyY - minDirtyY);
+        return true;
+    }
+
+    /**
+     * Grows the dirty region to cover a car's old and new trail if it changed
+     * @param id the car's body id
+     */
+    private void updateTrailBounds(int id) {
+        TrajectoryBuffer trajectories = engine.getTrajectories();
+        if (trajectories.getSampleCount(id) > 0) {
+            trailEndTimes[id] = trajectories.getTime(id, 0);
+        }
+        final int points = decimateTrail(id, renderTrailX, renderTrailY);
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < points; i++) {
+            final int x = coordinate3dToScreenCoordinateX(renderTrailX[i]);
+            final int y = coordinate3dToScreenCoordinateY(renderTrailY[i]);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        if (minX == lastTrailMinX[id] && minY == lastTrailMinY[id]
+                && maxX == lastTrailMaxX[id] && maxY == lastTrailMaxY[id]) {
+            return;
+        }
+        addDirtyBounds(lastTrailMinX[id], lastTrailMinY[id],
+                lastTrailMaxX[id], lastTrailMaxY[id]);
+        addDirtyBounds(minX, minY, maxX, maxY);
+        lastTrailMinX[id] = minX;
+        lastTrailMinY[id] = minY;
+        lastTrailMaxX[id] = maxX;
+        lastTrailMaxY[id] = maxY;
+    }
+
+    /**
+     * Finds where a car's ghost is now, growing the dirty region to cover
+     * its old and new position if it moved
+     * @param id the car's body id
+     */
+    private void updateGhost(int id) {
+        GhostRecorder ghosts = engine.getGhosts();
+        final Ghost ghost = ghosts.getBestLap(id);
+        final long lapStart = ghosts.getLapStartTime(id);
+        final boolean visible = ghost != null && lapStart != 0;
+        int x = 0;
+        int y = 0;
+        if (visible) {
+            final long elapsed = System.nanoTime() - lapStart;
+            ghost.sample(elapsed, renderGhostPosition);
+            x = coordinate3dToScreenCoordinateX(renderGhostPosition[0]);
+            y = coordinate3dToScreenCoordinateY(renderGhostPosition[1]);
+            ghostElapsedTimes[id] = elapsed;
+        }
+        renderedGhosts[id] = visible ? ghost : null;
+        if (lastGhostDrawn[id]) {
+            if (visible && x == lastGhostScreenX[id] && y == lastGhostScreenY[id]) {
+                return;
+            }
+            addDirtyDot(lastGhostScreenX[id], lastGhostScreenY[id], GHOST_DOT_RADIUS);
+        }
+        if (visible) {
+            addDirtyDot(x, y, GHOST_DOT_RADIUS);
+            lastGhostScreenX[id] = x;
+            lastGhostScreenY[id] = y;
+        }
+        lastGhostDrawn[id] = visible;
+    }
+
+    /**
+     * Grows the dirty region to cover the given screen bounds, if they
+     * aren't empty
+     */
+    private void addDirtyBounds(int minX, int minY, int maxX, int maxY) {
+        if (minX > maxX) {
+            return;
+        }
+        minDirtyX = Math.min(minDirtyX, minX - DIRTY_REGION_PADDING);
+        minDirtyY = Math.min(minDirtyY, minY - DIRTY_REGION_PADDING);
+        maxDirtyX = Math.max(maxDirtyX, maxX + DIRTY_REGION_PADDING);
+        maxDirtyY = Math.max(maxDirtyY, maxY + DIRTY_REGION_PADDING);
+    }
+
+    /**
+     * Grows the dirty region to cover a dot centered at the given screen location
+     */
+    private void addDirtyDot(int x, int y, int radius) {
+        final int extent = radius + 1 + DIRTY_REGION_PADDING;
+        minDirtyX = Math.min(minDirtyX, x - extent);
+        minDirtyY = Math.min(minDirtyY, y - extent);
+        maxDirtyX = Math.max(maxDirtyX, x + extent);
+        maxDirtyY = Math.max(maxDirtyY, y + extent);
     }
 
     @Override
@@ -183,8 +635,8 @@ public class ApplicationCanvas extends JPanel implements RigidBodyUpdateListener
         float unitX = screenX / (float) getWidth();
         float unitY = screenY / (float) getHeight();
 
-        update(0, (float)(unitX * roomWidth + roomXLowerBound), 
-                (float)(unitY * roomLength - roomYLowerBound), 0.0f);
+        engine.update(0, (float)(unitX * engine.getRoomWidth() + engine.getRoomXLowerBound()), 
+                (float)(unitY * engine.getRoomLength() - engine.getRoomYLowerBound()), 0.0f);
     }
 
     @Override
@@ -5,6 +5,8 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 
+import game.GameEngine;
+
 /**
  * This class defines the application's main window.
  * 
@@ -16,7 +18,11 @@ public class ApplicationFrame extends JFrame {
 
     private final ApplicationCanvas canvas;
     
-    public ApplicationFrame() {
+    /**
+     * @param engine the game engine drawn by the frame's canvas
+     * @param testMode if true, clicking the canvas moves car 0
+     */
+    public ApplicationFrame(GameEngine engine, boolean testMode) {
         super("Goal Chase Demo");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
@@ -39,7 +45,7 @@ public class ApplicationFrame extends JFrame {
         setJMenuBar(menuBar);
 
         // Add a canvas to the frame
-        canvas = new ApplicationCanvas();
+        canvas = new ApplicationCanvas(engine, testMode);
         add(canvas);
 
         // resize the frame to fit the menu bar and canvas component
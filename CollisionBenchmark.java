@@ -0,0 +1,103 @@
+import java.util.Random;
+
+import game.CollisionDetector;
+
+/**
+ * Compares CollisionDetector's sweep and prune with testing every pair
+ * of cars, for 10, 100 and 500 cars driving around a room at up to 3 m/s
+ * with Motive streaming at 360 Hz. The room grows with the number of
+ * cars, so each car has about a square meter to itself.
+ *
+ * Both find the pairs within the near miss distance of each other each
+ * frame, and the benchmark checks that they always find the same number.
+ */
+public class CollisionBenchmark {
+
+    private static final int FRAME_RATE = 360;
+    private static final float MAX_SPEED = 3.0f;
+    private static final int[] CAR_COUNTS = {10, 100, 500};
+    // the number of car-frames measured for each count
+    private static final long WORK = 20_000_000L;
+
+    public static void main(String[] args) {
+        System.out.printf("%6s %18s %22s %12s%n", "cars", "sweep (us/frame)",
+                "all pairs (us/frame)", "close pairs");
+        boolean matched = true;
+        for (int cars : CAR_COUNTS) {
+            matched &= run(cars);
+        }
+        if (!matched) {
+            System.out.println("FAILED: the sweep and all pairs found different pairs");
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(int cars) {
+        final int frames = (int) Math.max(2_000, WORK / cars);
+        final float side = (float) Math.sqrt(cars);
+        Random rng = new Random(1);
+        float[] xs = new float[cars];
+        float[] ys = new float[cars];
+        float[] vxs = new float[cars];
+        float[] vys = new float[cars];
+        for (int i = 0; i < cars; i++) {
+            xs[i] = rng.nextFloat() * side;
+            ys[i] = rng.nextFloat() * side;
+            vxs[i] = (rng.nextFloat() * 2 - 1) * MAX_SPEED / FRAME_RATE;
+            vys[i] = (rng.nextFloat() * 2 - 1) * MAX_SPEED / FRAME_RATE;
+        }
+
+        CollisionDetector detector = new CollisionDetector(cars);
+        final float reach = 2 * CollisionDetector.DEFAULT_RADIUS
+                + CollisionDetector.DEFAULT_NEAR_MISS_DISTANCE;
+        long sweepTime = 0;
+        long allPairsTime = 0;
+        long closePairs = 0;
+        boolean matched = true;
+        for (int frame = 0; frame < frames; frame++) {
+            // drive each car, bouncing off the walls
+            for (int i = 0; i < cars; i++) {
+                xs[i] += vxs[i];
+                ys[i] += vys[i];
+                if (xs[i] < 0 || xs[i] > side) {
+                    vxs[i] = -vxs[i];
+                }
+                if (ys[i] < 0 || ys[i] > side) {
+                    vys[i] = -vys[i];
+                }
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < cars; i++) {
+                detector.update(i, xs[i], ys[i], 0);
+            }
+            detector.detect(start);
+            long middle = System.nanoTime();
+            int count = 0;
+            for (int i = 0; i < cars; i++) {
+                for (int j = i + 1; j < cars; j++) {
+                    final float dx = xs[j] - xs[i];
+                    final float dy = ys[j] - ys[i];
+                    if (dx * dx + dy * dy < reach * reach) {
+                        count++;
+                    }
+                }
+            }
+            long end = System.nanoTime();
+
+            // the first tenth of the frames warm up
+            if (frame >= frames / 10) {
+                sweepTime += middle - start;
+                allPairsTime += end - middle;
+                closePairs += count;
+            }
+            matched &= count == detector.getClosePairCount();
+        }
+        final int measured = frames - frames / 10;
+        System.out.printf("%6d %18.2f %22.2f %12.2f%s%n", cars,
+                sweepTime / 1000.0 / measured, allPairsTime / 1000.0 / measured,
+                closePairs / (double) measured, matched ? "" : "  MISMATCH");
+        return matched;
+    }
+
+}
@@ -0,0 +1,111 @@
+import java.nio.ByteBuffer;
+
+import motive.BodyIDFilter;
+import motive.CommandStreamManager;
+import motive.ConflationMode;
+import motive.RigidBodyUpdateListener;
+import motive.SyntheticFrameSource;
+
+/**
+ * Measures the cost of dispatching a frame of 50 rigid bodies to 20
+ * listeners, each interested in a few of the bodies. Listeners that
+ * receive every body and filter by id themselves are compared with
+ * listeners subscribed with a BodyIDFilter, which are only called with
+ * the bodies they want. Finally, every listener is subscribed for all
+ * bodies at 60 Hz with DROP conflation, with frames arriving at 360 Hz,
+ * so most frames are suppressed for every listener and should cost
+ * little more than the baseline.
+ *
+ * Each frame is parsed from the same encoded packet, and the time to
+ * parse it with no listeners at all is reported as a baseline.
+ */
+public class DispatchBenchmark {
+
+    private static final int BODIES = 50;
+    private static final int LISTENERS = 20;
+    private static final int WARMUP_FRAMES = 200_000;
+    private static final int MEASURED_FRAMES = 1_000_000;
+    // the rate frames are timed at, and the rate-limited listeners' rate
+    private static final int FRAME_RATE = 360;
+    private static final int LISTENER_RATE = 60;
+
+    /**
+     * A listener that keeps a running sum of the bodies it's interested
+     * in, checking each id itself
+     */
+    private static class SelfFilteringListener implements RigidBodyUpdateListener {
+        private final int first;
+        private final int last;
+        double sum;
+
+        SelfFilteringListener(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public void update(int id, float x, float y, float z) {
+            if (id < first || id > last) {
+                return;
+            }
+            sum += x + y;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.printf("%d bodies, %d listeners%n", BODIES, LISTENERS);
+        System.out.printf("%-26s %10s%n", "", "ns/frame");
+        System.out.printf("%-26s %10.0f%n", "no listeners", measure(0, false, 0));
+        System.out.printf("%-26s %10.0f%n", "listeners filter by id", measure(LISTENERS, false, 0));
+        System.out.printf("%-26s %10.0f%n", "filtered subscriptions", measure(LISTENERS, true, 0));
+        System.out.printf("%-26s %10.0f%n", LISTENER_RATE + " Hz subscriptions (DROP)",
+                measure(LISTENERS, false, LISTENER_RATE));
+    }
+
+    /**
+     * @param listeners the number of listeners
+     * @param filtered if true, listeners are subscribed with a BodyIDFilter
+     * @param rate the rate listeners are subscribed at, or 0 for every frame
+     * @return the mean time to process a frame, in nanoseconds
+     */
+    private static double measure(int listeners, boolean filtered, double rate) {
+        CommandStreamManager manager = new CommandStreamManager();
+        SelfFilteringListener[] subscribers = new SelfFilteringListener[listeners];
+        for (int i = 0; i < listeners; i++) {
+            // each listener follows a few neighbouring bodies
+            int first = i * BODIES / listeners;
+            int last = (i + 1) * BODIES / listeners - 1;
+            subscribers[i] = new SelfFilteringListener(first, last);
+            if (filtered) {
+                manager.addRigidBodyUpdateListener(subscribers[i], BodyIDFilter.range(first, last));
+            } else if (rate > 0) {
+                manager.addRigidBodyUpdateListener(subscribers[i], rate, ConflationMode.DROP);
+            } else {
+                manager.addRigidBodyUpdateListener(subscribers[i]);
+            }
+        }
+        ByteBuffer packet = new SyntheticFrameSource(manager, BODIES, 0).encode(0);
+
+        long start = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + MEASURED_FRAMES; frame++) {
+            if (frame == WARMUP_FRAMES) {
+                start = System.nanoTime();
+            }
+            packet.rewind();
+            // frames are timed at FRAME_RATE, however fast they are parsed
+            manager.processPacket(packet, frame * 1_000_000_000L / FRAME_RATE);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // use the sums, so the listeners' work isn't optimized away
+        double sum = 0;
+        for (SelfFilteringListener subscriber : subscribers) {
+            sum += subscriber.sum;
+        }
+        if (Double.isNaN(sum)) {
+            System.out.println(sum);
+        }
+        return elapsed / (double) MEASURED_FRAMES;
+    }
+
+}
@@ -0,0 +1,109 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import game.Ghost;
+import game.GhostFile;
+import game.GhostRecorder;
+
+/**
+ * Measures the cost of drawing many ghosts at once: a 60 second lap at
+ * 360 Hz is recorded for each of 256 bodies, and every ghost is sampled
+ * once per frame, either at a random point of its lap (so every search
+ * misses the cache) or played back at 60 frames per second from a
+ * different start for each ghost, as on the canvas. Ghosts recorded in
+ * memory are compared with the same ghosts mapped from a ghost file, and
+ * the time to write and map the file is reported.
+ */
+public class GhostBenchmark {
+
+    private static final int BODIES = 256;
+    private static final int FRAME_RATE = 360;
+    private static final int LAP_SECONDS = 60;
+    private static final int WARMUP_FRAMES = 2_000;
+    private static final int MEASURED_FRAMES = 20_000;
+    private static final long RENDER_FRAME_TIME = 1_000_000_000L / 60;
+
+    public static void main(String[] args) throws Exception {
+        GhostRecorder recorder = new GhostRecorder();
+        final long frameTime = 1_000_000_000L / FRAME_RATE;
+        final int samples = LAP_SECONDS * FRAME_RATE;
+        for (int id = 0; id < BODIES; id++) {
+            // start each lap on a frame, so the samples line up with the laps
+            long start = 1_000_000_000L;
+            for (int lap = 0; lap <= 1; lap++) {
+                if (lap > 0) {
+                    recorder.lapCompleted(id, lap, samples * frameTime);
+                }
+                recorder.gateCrossed(id, 0, start + lap * samples * frameTime);
+                for (int i = 0; i < samples; i++) {
+                    double angle = 2 * Math.PI * i / samples + id;
+                    recorder.record(id, (float) Math.cos(angle), (float) Math.sin(angle),
+                            start + (lap * samples + i) * frameTime + 1);
+                }
+            }
+            recorder.lapCompleted(id, 2, samples * frameTime);
+            recorder.gateCrossed(id, 0, start + 2 * samples * frameTime);
+        }
+        List<Ghost> recorded = recorder.getBestLaps();
+        System.out.println(recorded.size() + " ghosts of " + recorded.get(0).getSampleCount()
+                + " samples");
+
+        Path path = Files.createTempFile("ghosts", ".bin");
+        try {
+            long start = System.nanoTime();
+            GhostFile.write(path, recorded);
+            double writeTime = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            List<Ghost> mapped = GhostFile.read(path);
+            double readTime = (System.nanoTime() - start) / 1e6;
+            System.out.printf("file: %d bytes  write: %.1f ms  map: %.2f ms%n",
+                    Files.size(path), writeTime, readTime);
+
+            long lapTime = recorded.get(0).getLapTime();
+            System.out.printf("%-10s %12s %12s%n", "", "random", "playback");
+            System.out.printf("%-10s %9.1f ns %9.1f ns  per ghost%n", "recorded",
+                    measure(recorded, lapTime, false), measure(recorded, lapTime, true));
+            System.out.printf("%-10s %9.1f ns %9.1f ns  per ghost%n", "mapped",
+                    measure(mapped, lapTime, false), measure(mapped, lapTime, true));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * @param playback if true, each ghost is played back from its own start
+     * time; otherwise every ghost is sampled at a random time each frame
+     * @return the mean time to sample a ghost, in nanoseconds
+     */
+    private static double measure(List<Ghost> ghosts, long lapTime, boolean playback) {
+        Ghost[] array = ghosts.toArray(new Ghost[0]);
+        float[] position = new float[2];
+        Random rng = new Random(1);
+        long[] offsets = new long[array.length];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = (long) (rng.nextDouble() * lapTime);
+        }
+        double sink = 0;
+        long start = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + MEASURED_FRAMES; frame++) {
+            if (frame == WARMUP_FRAMES) {
+                start = System.nanoTime();
+            }
+            final long random = (long) (rng.nextDouble() * lapTime);
+            for (int i = 0; i < array.length; i++) {
+                final long elapsed = playback
+                        ? (offsets[i] + frame * RENDER_FRAME_TIME) % lapTime : random;
+                array[i].sample(elapsed, position);
+                sink += position[0];
+            }
+        }
+        double time = (System.nanoTime() - start) / (double) (MEASURED_FRAMES * array.length);
+        if (sink == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+
+}
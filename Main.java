@@ -1,18 +1,439 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
 import javax.swing.SwingUtilities;
 
+import game.CollisionDetector;
+import game.GameEngine;
+import game.Ghost;
+import game.GhostFile;
+import game.Kinematics;
+import game.TickScheduler;
+import game.Track;
+import game.TrackMonitor;
+import motive.CommandStreamManager;
+import motive.MotiveEndpoint;
+import motive.MotiveReceiver;
+import motive.StreamMetrics;
+import motive.SyntheticFrameSource;
+
 /**
  * Program entry point
+ *
+ * Supported arguments:
+ *   --headless       run the game without a window
+ *   --test           don't connect to Motive; clicking the canvas moves car 0
+ *   --synthetic[=N]  drive the game with N synthetic rigid bodies (default 1)
+ *                    instead of Motive
+ *   --rate=HZ        the rate synthetic frames are produced at (default 0,
+ *                    meaning as fast as possible)
+ *   --tick-rate=HZ   the rate the game advances at, from 60 to 500 (default 120)
+ *   --arenas=FILE    run one game per Motive server listed in a properties
+ *                    file (see MotiveEndpoint.fromProperties), with the
+ *                    arena names listed by the "arenas" property, e.g.
+ *                    arenas=roomA,roomB
+ *   --busy-poll[=US] busy poll for packets instead of blocking, spinning for
+ *                    US microseconds after each packet before blocking
+ *                    again (default: always spin)
+ *   --pin=CPUS       pin the receive thread to CPUs, e.g. --pin=3 (Linux only)
+ *   --rcvbuf=BYTES   the socket receive buffer size
+ *   --track=FILE     the track, read from a properties file (see
+ *                    Track.fromProperties); every arena uses it
+ *   --gate=X1,Y1,X2,Y2  add a lap timing gate; the first is the start/finish
+ *                    line, and each is crossed from left to right
+ *   --ghosts=FILE    load each car's best lap from a ghost file on startup,
+ *                    and save them to it on exit (with several arenas,
+ *                    each uses FILE.<arena name>)
  */
 public class Main {
 
+    // time between headless status reports, in milliseconds
+    private static final long STATUS_PERIOD = 1000;
+
+    // default rate the game advances at, in ticks per second
+    private static final int DEFAULT_TICK_RATE = 120;
+
+    /**
+     * Structure holding the game running for one Motive server
+     */
+    private static class Arena {
+        MotiveEndpoint endpoint;
+        GameEngine engine;
+        TickScheduler scheduler;
+        CommandStreamManager streamManager;
+    }
+
+    /**
+     * Structure holding the options of the Motive receive loop
+     */
+    private static class ReceiveOptions {
+        long spinTime;
+        String cpuAffinity;
+        int receiveBufferSize;
+    }
+
     public static void main(String[] args) {
-        // initialize the GUI elements on the Swing event thread (required)
-        SwingUtilities.invokeLater(Main::initiateSwingComponents);
+        boolean headless = false;
+        boolean testMode = false;
+        int syntheticBodies = 0;
+        int syntheticRate = 0;
+        int tickRate = DEFAULT_TICK_RATE;
+        String arenaFile = null;
+        String trackFile = null;
+        String ghostFile = null;
+        List<float[]> gates = new ArrayList<>();
+        ReceiveOptions receiveOptions = new ReceiveOptions();
+        for (String arg : args) {
+            if (arg.equals("--headless")) {
+                headless = true;
+            } else if (arg.equals("--test")) {
+                testMode = true;
+            } else if (arg.equals("--synthetic")) {
+                syntheticBodies = 1;
+            } else if (arg.startsWith("--synthetic=")) {
+                syntheticBodies = Integer.parseInt(arg.substring("--synthetic=".length()));
+            } else if (arg.startsWith("--rate=")) {
+                syntheticRate = Integer.parseInt(arg.substring("--rate=".length()));
+            } else if (arg.startsWith("--tick-rate=")) {
+                tickRate = Integer.parseInt(arg.substring("--tick-rate=".length()));
+            } else if (arg.startsWith("--arenas=")) {
+                arenaFile = arg.substring("--arenas=".length());
+            } else if (arg.startsWith("--track=")) {
+                trackFile = arg.substring("--track=".length());
+            } else if (arg.startsWith("--gate=")) {
+                String[] coordinates = arg.substring("--gate=".length()).split(",");
+                if (coordinates.length != 4) {
+                    System.out.println("Expected --gate=X1,Y1,X2,Y2 but found " + arg);
+                    return;
+                }
+                float[] gate = new float[4];
+                for (int i = 0; i < 4; i++) {
+                    gate[i] = Float.parseFloat(coordinates[i]);
+                }
+                gates.add(gate);
+            } else if (arg.startsWith("--ghosts=")) {
+                ghostFile = arg.substring("--ghosts=".length());
+            } else if (arg.equals("--busy-poll")) {
+                receiveOptions.spinTime = MotiveReceiver.SPIN_FOREVER;
+            } else if (arg.startsWith("--busy-poll=")) {
+                receiveOptions.spinTime = Long.parseLong(arg.substring("--busy-poll=".length())) * 1000;
+            } else if (arg.startsWith("--pin=")) {
+                receiveOptions.cpuAffinity = arg.substring("--pin=".length());
+            } else if (arg.startsWith("--rcvbuf=")) {
+                receiveOptions.receiveBufferSize = Integer.parseInt(arg.substring("--rcvbuf=".length()));
+            } else {
+                System.out.println("Unknown argument: " + arg);
+                return;
+            }
+        }
+
+        List<MotiveEndpoint> endpoints = new ArrayList<>();
+        if (arenaFile != null) {
+            try {
+                endpoints.addAll(readArenas(arenaFile));
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Error reading arenas from " + arenaFile);
+                System.out.println(e.getMessage());
+                return;
+            }
+        } else {
+            endpoints.add(MotiveEndpoint.localDefault());
+        }
+
+        Track track = null;
+        if (trackFile != null) {
+            try {
+                track = readTrack(trackFile);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Error reading track from " + trackFile);
+                System.out.println(e.getMessage());
+                return;
+            }
+        }
+
+        List<Arena> arenas = new ArrayList<>();
+        for (MotiveEndpoint endpoint : endpoints) {
+            arenas.add(createArena(endpoint, tickRate, track, gates));
+        }
+
+        if (ghostFile != null) {
+            try {
+                loadGhosts(arenas, ghostFile);
+            } catch (IOException e) {
+                System.out.println("Error reading ghosts from " + ghostFile);
+                System.out.println(e.getMessage());
+                return;
+            }
+            final String savedGhostFile = ghostFile;
+            // save the best laps however the program exits
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> saveGhosts(arenas, savedGhostFile)));
+        }
+
+        MotiveReceiver receiver = null;
+        if (!testMode) {
+            receiver = startStreams(arenas, syntheticBodies, syntheticRate, receiveOptions);
+        }
+
+        if (headless) {
+            reportStatus(arenas, receiver);
+        } else {
+            final boolean canvasTestMode = testMode;
+            // initialize the GUI elements on the Swing event thread (required)
+            SwingUtilities.invokeLater(() -> initiateSwingComponents(arenas, canvasTestMode));
+        }
+    }
+
+    private static void initiateSwingComponents(List<Arena> arenas, boolean testMode) {
+        // create a new ApplicationFrame (our main window) for each arena
+        // and make it visible
+        for (Arena arena : arenas) {
+            ApplicationFrame frame = new ApplicationFrame(arena.engine, testMode);
+            if (arenas.size() > 1) {
+                frame.setTitle(frame.getTitle() + " - " + arena.endpoint.getName());
+            }
+            frame.setVisible(true);
+        }
+    }
+
+    /**
+     * Reads the endpoints listed by an arena properties file
+     * @param fileName the file to read
+     * @return the endpoints, in the order listed
+     */
+    private static List<MotiveEndpoint> readArenas(String fileName) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(fileName)) {
+            properties.load(reader);
+        }
+        String names = properties.getProperty("arenas");
+        if (names == null || names.trim().isEmpty()) {
+            throw new IllegalArgumentException("No arenas listed");
+        }
+        List<MotiveEndpoint> endpoints = new ArrayList<>();
+        for (String name : names.split(",")) {
+            MotiveEndpoint endpoint = MotiveEndpoint.fromProperties(name.trim(), properties);
+            // every arena's channel binds its local port on all addresses
+            for (MotiveEndpoint other : endpoints) {
+                if (other.getLocalPort() == endpoint.getLocalPort()) {
+                    throw new IllegalArgumentException("Arenas " + other.getName() + " and "
+                            + endpoint.getName() + " both use local port "
+                            + endpoint.getLocalPort() + "; set a different localPort for each");
+                }
+            }
+            endpoints.add(endpoint);
+        }
+        return endpoints;
+    }
+
+    /**
+     * Reads a track from a properties file
+     * @param fileName the file to read
+     * @return the track
+     */
+    private static Track readTrack(String fileName) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(fileName)) {
+            properties.load(reader);
+        }
+        return Track.fromProperties(properties);
+    }
+
+    /**
+     * Creates the game for a Motive server, and starts advancing it
+     * @param endpoint the Motive server
+     * @param tickRate the rate the game advances at
+     * @param track the track, or null
+     * @param gates the lap timing gates, each as x1, y1, x2, y2
+     * @return the arena's game, not yet receiving frames
+     */
+    private static Arena createArena(MotiveEndpoint endpoint, int tickRate, Track track,
+            List<float[]> gates) {
+        Arena arena = new Arena();
+        arena.endpoint = endpoint;
+        arena.engine = new GameEngine();
+        arena.engine.setRoomDimensions(endpoint.getRoomXLowerBound(),
+                endpoint.getRoomYLowerBound(), endpoint.getRoomWidth(),
+                endpoint.getRoomLength());
+        if (track != null) {
+            arena.engine.setTrack(track);
+        }
+        for (float[] gate : gates) {
+            arena.engine.getLapTimer().addGate(gate[0], gate[1], gate[2], gate[3]);
+        }
+
+        // advance the game at a fixed rate, independent of Motive's frame rate
+        arena.scheduler = new TickScheduler(tickRate, arena.engine::tick);
+        new Thread(arena.scheduler).start();
+
+        arena.streamManager = new CommandStreamManager(endpoint);
+        // the lap timer, trajectories and kinematics listen directly
+        // so that they see every frame
+        arena.engine.registerListeners(arena.streamManager::addRigidBodyUpdateListener,
+                arena.streamManager::addFrameUpdateListener);
+        return arena;
+    }
+
+    /**
+     * @return the ghost file used by an arena
+     */
+    private static Path ghostFileOf(List<Arena> arenas, Arena arena, String fileName) {
+        return Paths.get(arenas.size() > 1 ? fileName + "." + arena.endpoint.getName() : fileName);
+    }
+
+    /**
+     * Loads each arena's best laps from its ghost file, if it exists
+     * @param arenas the arenas
+     * @param fileName the ghost file
+     */
+    private static void loadGhosts(List<Arena> arenas, String fileName) throws IOException {
+        for (Arena arena : arenas) {
+            Path path = ghostFileOf(arenas, arena, fileName);
+            if (Files.exists(path)) {
+                List<Ghost> ghosts = GhostFile.read(path);
+                arena.engine.getGhosts().addBestLaps(ghosts);
+                System.out.println("Loaded " + ghosts.size() + " ghosts from " + path);
+            }
+        }
+    }
+
+    /**
+     * Saves each arena's best laps to its ghost file
+     * @param arenas the arenas
+     * @param fileName the ghost file
+     */
+    private static void saveGhosts(List<Arena> arenas, String fileName) {
+        for (Arena arena : arenas) {
+            Path path = ghostFileOf(arenas, arena, fileName);
+            List<Ghost> ghosts = arena.engine.getGhosts().getBestLaps();
+            try {
+                GhostFile.write(path, ghosts);
+                System.out.println("Saved " + ghosts.size() + " ghosts to " + path);
+            } catch (IOException e) {
+                System.out.println("Error saving ghosts to " + path);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Begins feeding each arena frames, either from Motive or from
+     * synthetic sources
+     * @param arenas the arenas to feed
+     * @param syntheticBodies the number of synthetic bodies, or 0 to use Motive
+     * @param syntheticRate the synthetic frame rate, or 0 for unlimited
+     * @param options the options of the receive loop, if Motive is used
+     * @return the receiver serving every arena, or null if synthetic
+     * sources are used
+     */
+    private static MotiveReceiver startStreams(List<Arena> arenas,
+            int syntheticBodies, int syntheticRate, ReceiveOptions options) {
+        if (syntheticBodies > 0) {
+            for (Arena arena : arenas) {
+                new Thread(new SyntheticFrameSource(arena.streamManager,
+                        syntheticBodies, syntheticRate)).start();
+            }
+            return null;
+        }
+        List<CommandStreamManager> managers = new ArrayList<>();
+        for (Arena arena : arenas) {
+            managers.add(arena.streamManager);
+        }
+        // begin listening for updates from every Motive server on one thread
+        MotiveReceiver receiver = new MotiveReceiver(managers);
+        receiver.setSpinTime(options.spinTime);
+        if (options.cpuAffinity != null) {
+            receiver.setCpuAffinity(options.cpuAffinity);
+        }
+        if (options.receiveBufferSize > 0) {
+            receiver.setReceiveBufferSize(options.receiveBufferSize);
+        }
+        new Thread(receiver).start();
+        return receiver;
+    }
+
+    /**
+     * Prints the status of each arena once every STATUS_PERIOD milliseconds,
+     * used in place of a window when running headless
+     * @param arenas the arenas to report on
+     * @param receiver the receiver serving the arenas, or null
+     */
+    private static void reportStatus(List<Arena> arenas, MotiveReceiver receiver) {
+        long[] lastFrames = new long[arenas.size()];
+        long[] lastTicks = new long[arenas.size()];
+        while (true) {
+            try {
+                Thread.sleep(STATUS_PERIOD);
+            } catch (InterruptedException e) {}
+            for (int i = 0; i < arenas.size(); i++) {
+                Arena arena = arenas.get(i);
+                GameEngine engine = arena.engine;
+                TickScheduler scheduler = arena.scheduler;
+                StreamMetrics metrics = arena.streamManager.getMetrics();
+                if (arenas.size() > 1) {
+                    System.out.print(arena.endpoint.getName() + ": ");
+                }
+                long ticks = scheduler.getTickCount();
+                long frames = metrics.getFramesReceived();
+                System.out.printf("ticks/s: %d  overruns: %d  jitter (mean/max us): %d/%d"
+                        + "  frames/s: %d  pickups: %d",
+                        (ticks - lastTicks[i]) * 1000 / STATUS_PERIOD,
+                        scheduler.getOverrunCount(),
+                        scheduler.getMeanJitter() / 1000,
+                        scheduler.getMaxJitter() / 1000,
+                        (frames - lastFrames[i]) * 1000 / STATUS_PERIOD,
+                        engine.getPickupsCollected());
+                CollisionDetector collisions = engine.getCollisions();
+                System.out.printf("  contacts: %d  near misses: %d",
+                        collisions.getContactCount(), collisions.getNearMissCount());
+                if (engine.getTrack() != null) {
+                    TrackMonitor monitor = engine.getTrackMonitor();
+                    System.out.printf("  off track: %d  obstacle hits: %d",
+                            monitor.getOffTrackCount(), monitor.getObstacleHitCount());
+                }
+                lastTicks[i] = ticks;
+                lastFrames[i] = frames;
+                final int car = firstActiveCar(engine, arena.endpoint.getBodyIDOffset());
+                if (car >= 0) {
+                    Kinematics kinematics = engine.getKinematics();
+                    String name = arena.streamManager.getModelDefinitions().getRigidBodyName(car);
+                    System.out.printf("  car %d%s speed/top (m/s): %.2f/%.2f  distance (m): %.1f",
+                            car, name == null ? "" : " (" + name + ")",
+                            kinematics.getSpeed(car), kinematics.getTopSpeed(car),
+                            kinematics.getDistance(car));
+                    Ghost ghost = engine.getGhosts().getBestLap(car);
+                    if (ghost != null) {
+                        System.out.printf("  best lap (s): %.3f", ghost.getLapTime() / 1e9);
+                    }
+                }
+                System.out.println();
+                System.out.println("    " + metrics);
+            }
+            if (receiver != null && arenas.size() > 1) {
+                System.out.println("all arenas: " + receiver.getAggregateMetrics());
+            }
+        }
     }
 
-    private static void initiateSwingComponents() {
-        // create a new ApplicationFrame (our main window) and make it visible
-        new ApplicationFrame().setVisible(true);
+    /**
+     * @param engine an arena's engine
+     * @param bodyIDOffset the offset added to the arena's body ids
+     * @return the lowest id of a car the engine has seen, starting from
+     * the arena's offset, or -1 if none
+     */
+    private static int firstActiveCar(GameEngine engine, int bodyIDOffset) {
+        for (int id = Math.max(bodyIDOffset, 0); id < engine.getCarIDLimit(); id++) {
+            if (engine.isCarActive(id)) {
+                return id;
+            }
+        }
+        return -1;
     }
 
-}
\ No newline at end of file
+}
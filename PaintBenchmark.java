@@ -0,0 +1,74 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import game.GameEngine;
+
+/**
+ * Measures the time ApplicationCanvas takes to paint a frame with 1, 10
+ * and 50 cars moving (with trails), comparing a full-canvas repaint with
+ * a repaint of only the dirty region computed by the canvas.
+ *
+ * Run with -Djava.awt.headless=true to measure without a display; the
+ * canvas then caches its static layer in a BufferedImage instead of a
+ * VolatileImage.
+ */
+public class PaintBenchmark {
+
+    private static final int CANVAS_SIZE = 600;
+    private static final int WARMUP_FRAMES = 1_000;
+    private static final int MEASURED_FRAMES = 4_000;
+    private static final int[] CAR_COUNTS = { 1, 10, 50 };
+    // the frame rate simulated for trajectory timestamps
+    private static final int FRAME_RATE = 240;
+
+    public static void main(String[] args) {
+        System.out.printf("%6s %16s %16s%n", "cars", "full (us/frame)", "dirty (us/frame)");
+        for (int cars : CAR_COUNTS) {
+            double full = measure(cars, false);
+            double dirty = measure(cars, true);
+            System.out.printf("%6d %16.1f %16.1f%n", cars, full, dirty);
+        }
+    }
+
+    /**
+     * @param cars the number of moving cars
+     * @param dirtyOnly if true, only the dirty region is repainted each frame
+     * @return the mean paint time per frame, in microseconds
+     */
+    private static double measure(int cars, boolean dirtyOnly) {
+        GameEngine engine = new GameEngine();
+        ApplicationCanvas canvas = new ApplicationCanvas(engine, false);
+        canvas.setSize(CANVAS_SIZE, CANVAS_SIZE);
+        BufferedImage target = new BufferedImage(CANVAS_SIZE, CANVAS_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+
+        long totalTime = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + MEASURED_FRAMES; frame++) {
+            for (int id = 0; id < cars; id++) {
+                // each car drives its own circle, moving a few pixels per frame
+                double angle = frame * 0.02 + id;
+                float x = (float) (0.8 * Math.cos(angle + id * 0.3) * ((id % 5) + 1) / 5);
+                float y = (float) (0.8 * Math.sin(angle) * ((id % 7) + 1) / 7);
+                engine.update(id, x, y, 0.0f);
+                engine.getTrajectories().record(id, x, y,
+                        frame * 1_000_000_000L / FRAME_RATE);
+            }
+            // the engine calls the canvas's render(), computing the dirty region
+            engine.tick();
+
+            Graphics g = target.getGraphics();
+            if (dirtyOnly) {
+                g.setClip(canvas.dirtyRegion);
+            }
+            long start = System.nanoTime();
+            canvas.paint(g);
+            long elapsed = System.nanoTime() - start;
+            g.dispose();
+            if (frame >= WARMUP_FRAMES) {
+                totalTime += elapsed;
+            }
+        }
+        return totalTime / 1000.0 / MEASURED_FRAMES;
+    }
+
+}
@@ -0,0 +1,198 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import motive.CommandStreamManager;
+import motive.ModelDefinitions;
+import motive.MotiveEndpoint;
+import motive.MotiveVersion;
+import motive.StreamMetrics;
+import motive.SyntheticFrameSource;
+
+/**
+ * Checks that Motive 3 packets are parsed with the layout of the NatNet
+ * version Motive announces: NatNet 4.0, whose model definitions and frame
+ * sections aren't prefixed with their size, and NatNet 4.1, whose are
+ * (and whose frames add assets and a precision timestamp).
+ *
+ * For each version, a CommandStreamManager is sent the server information,
+ * model definitions holding a marker set, two rigid bodies with markers and
+ * a description to read or skip in between (a skeleton, or a camera when
+ * descriptions are sized), then synthetic frames. The endpoint offsets
+ * body ids, so parent ids must be offset too. The check exits with
+ * status 1 if the definitions, bodies or frame timestamps are misread.
+ */
+public class ParseCheck {
+
+    // Message type used by Motive for model definitions
+    private static final short MESSAGE_MODEL_DEF = 5;
+
+    // description types within the model definitions message
+    private static final int TYPE_MARKER_SET = 0;
+    private static final int TYPE_RIGID_BODY = 1;
+    private static final int TYPE_SKELETON = 2;
+    private static final int TYPE_CAMERA = 5;
+
+    private static final int BODIES = 3;
+    // added to the body ids, including parent ids, in the definitions
+    private static final int BODY_ID_OFFSET = 10;
+    private static final int FRAMES = 20;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) {
+        check(4, 0);
+        check(4, 1);
+        System.out.println(passed ? "passed" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(int major, int minor) {
+        final String name = "NatNet " + major + "." + minor;
+        MotiveEndpoint endpoint = new MotiveEndpoint("check", "localhost",
+                MotiveEndpoint.DEFAULT_COMMAND_PORT, MotiveEndpoint.DEFAULT_LOCAL_PORT,
+                MotiveVersion.V3);
+        endpoint.setBodyIDs(BODY_ID_OFFSET, BODIES);
+        CommandStreamManager manager = new CommandStreamManager(endpoint);
+        final int[] counts = new int[2];
+        manager.addRigidBodyUpdateListener((id, x, y, z) -> counts[0]++);
+        manager.addFrameUpdateListener(() -> counts[1]++);
+        SyntheticFrameSource source = new SyntheticFrameSource(manager, BODIES, 0);
+        source.setNatNetVersion(major, minor);
+
+        manager.processPacket(source.encodeServerInformation());
+        expect(name, "NatNet version", major + "." + minor,
+                manager.getNatNetMajorVersion() + "." + manager.getNatNetMinorVersion());
+
+        manager.processPacket(encodeModelDefinitions(major, minor));
+        ModelDefinitions definitions = manager.getModelDefinitions();
+        expect(name, "marker sets", 1, definitions.getMarkerSetCount());
+        expect(name, "rigid bodies", 2, definitions.getRigidBodyCount());
+        final int car0 = BODY_ID_OFFSET;
+        final int car1 = BODY_ID_OFFSET + 1;
+        expect(name, "body 0 name", "Car 0", definitions.getRigidBodyName(car0));
+        expect(name, "body 0 markers", 2, definitions.getRigidBodyMarkerCount(car0));
+        expect(name, "body 0 parent", -1, definitions.getRigidBodyParentID(car0));
+        expect(name, "body 1 name", "Car 1", definitions.getRigidBodyName(car1));
+        expect(name, "body 1 parent", car0, definitions.getRigidBodyParentID(car1));
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            manager.processPacket(source.encode(frame));
+        }
+        StreamMetrics metrics = manager.getMetrics();
+        expect(name, "bodies delivered", BODIES * FRAMES, counts[0]);
+        expect(name, "frames delivered", FRAMES, counts[1]);
+        expect(name, "parse errors", 0L, metrics.getParseErrors());
+        expect(name, "trailer errors", 0L, metrics.getTrailerErrors());
+        // the source timestamps frame N at N seconds when it has no rate
+        expect(name, "last frame timestamp", (double) (FRAMES - 1),
+                manager.getLastFrameTimestamp());
+        System.out.println(name + ": " + definitions);
+    }
+
+    private static void expect(String name, String what, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            System.out.println(name + ": expected " + what + " " + expected + ", got " + actual);
+            passed = false;
+        }
+    }
+
+    /**
+     * Encodes model definitions in the layout of a NatNet version
+     */
+    private static ByteBuffer encodeModelDefinitions(int major, int minor) {
+        final boolean sized = major > 4 || (major == 4 && minor >= 1);
+        ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort(MESSAGE_MODEL_DEF);
+        buffer.putShort((short) 0);
+        buffer.putInt(4);
+
+        int sizePosition = beginDescription(buffer, TYPE_MARKER_SET, sized);
+        putString(buffer, "all");
+        buffer.putInt(2);
+        putString(buffer, "all_1");
+        putString(buffer, "all_2");
+        endDescription(buffer, sizePosition, sized);
+
+        sizePosition = beginDescription(buffer, TYPE_RIGID_BODY, sized);
+        putRigidBody(buffer, "Car 0", 0, -1, 2, major);
+        endDescription(buffer, sizePosition, sized);
+
+        if (sized) {
+            // a description this application doesn't read, skipped by its size
+            sizePosition = beginDescription(buffer, TYPE_CAMERA, sized);
+            putString(buffer, "Camera 1");
+            buffer.position(buffer.position() + 12 + 16);
+            endDescription(buffer, sizePosition, sized);
+        } else {
+            sizePosition = beginDescription(buffer, TYPE_SKELETON, sized);
+            putString(buffer, "Skeleton");
+            buffer.putInt(7);
+            buffer.putInt(1);
+            putRigidBody(buffer, "Hip", 1, -1, 1, major);
+            endDescription(buffer, sizePosition, sized);
+        }
+
+        sizePosition = beginDescription(buffer, TYPE_RIGID_BODY, sized);
+        putRigidBody(buffer, "Car 1", 1, 0, 1, major);
+        endDescription(buffer, sizePosition, sized);
+
+        buffer.putShort(2, (short) (buffer.position() - 4));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return the position of the description's size, filled in by
+     * endDescription
+     */
+    private static int beginDescription(ByteBuffer buffer, int type, boolean sized) {
+        buffer.putInt(type);
+        final int sizePosition = buffer.position();
+        if (sized) {
+            buffer.putInt(0);
+        }
+        return sizePosition;
+    }
+
+    private static void endDescription(ByteBuffer buffer, int sizePosition, boolean sized) {
+        if (sized) {
+            buffer.putInt(sizePosition, buffer.position() - sizePosition - 4);
+        }
+    }
+
+    /**
+     * Writes a rigid body description: name, id, parent, offset, then its
+     * markers' offsets, labels and (NatNet 4.0 or higher) names
+     */
+    private static void putRigidBody(ByteBuffer buffer, String name, int id, int parentID,
+            int markerCount, int major) {
+        putString(buffer, name);
+        buffer.putInt(id);
+        buffer.putInt(parentID);
+        buffer.putFloat(0.0f);
+        buffer.putFloat(0.0f);
+        buffer.putFloat(0.0f);
+        buffer.putInt(markerCount);
+        for (int marker = 0; marker < markerCount; marker++) {
+            buffer.putFloat(0.01f * marker);
+            buffer.putFloat(0.02f);
+            buffer.putFloat(0.03f);
+        }
+        for (int marker = 0; marker < markerCount; marker++) {
+            buffer.putInt(marker + 1);
+        }
+        if (major >= 4) {
+            for (int marker = 0; marker < markerCount; marker++) {
+                putString(buffer, name + " marker " + (marker + 1));
+            }
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String string) {
+        buffer.put(string.getBytes());
+        buffer.put((byte) 0);
+    }
+
+}
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import motive.CommandStreamManager;
+import motive.MotiveEndpoint;
+import motive.MotiveReceiver;
+import motive.MotiveVersion;
+import motive.SyntheticFrameSource;
+
+/**
+ * Compares how quickly MotiveReceiver wakes up for a packet when it blocks
+ * in select(), when it spins for a while after each packet before blocking
+ * (spin-then-park), and when it always spins.
+ *
+ * A local sender stands in for Motive, sending frames over UDP on this
+ * machine with random gaps between them, so the receiver is idle when
+ * each frame arrives, much as it is between Motive's frames. The latency
+ * measured is from just before a frame is sent to the end of the frame's
+ * dispatch to listeners.
+ *
+ * Busy polling needs a core of its own; on a machine with few cores the
+ * spinning receiver competes with the sender and may do worse.
+ */
+public class ReceiveBenchmark {
+
+    private static final int LOCAL_PORT = 15512;
+    private static final int BODIES = 10;
+    private static final int WARMUP_PACKETS = 500;
+    private static final int MEASURED_PACKETS = 5_000;
+    // the gap between frames is drawn uniformly from this range, in nanoseconds
+    private static final long MIN_GAP = 200_000L;
+    private static final long MAX_GAP = 1_000_000L;
+    // the time spin-then-park keeps spinning after each packet
+    private static final long HYBRID_SPIN_TIME = 300_000L;
+
+    private static volatile long sendTime;
+    private static volatile long framesProcessed;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-16s %8s %8s %8s %8s%n", "mode", "p50 us", "p90 us", "p99 us", "max us");
+        report("blocking", 0);
+        report("spin-then-park", HYBRID_SPIN_TIME);
+        report("busy poll", MotiveReceiver.SPIN_FOREVER);
+    }
+
+    private static void report(String mode, long spinTime) throws Exception {
+        long[] latencies = measure(spinTime);
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %8.1f %8.1f %8.1f %8.1f%n", mode,
+                percentile(latencies, 50), percentile(latencies, 90),
+                percentile(latencies, 99), latencies[latencies.length - 1] / 1000.0);
+    }
+
+    /**
+     * @return the given percentile of sorted latencies, in microseconds
+     */
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    /**
+     * @param spinTime the receiver's spin time
+     * @return the latency of each measured frame, in nanoseconds
+     */
+    private static long[] measure(long spinTime) throws IOException, InterruptedException {
+        try (DatagramChannel sender = DatagramChannel.open()) {
+            sender.bind(new InetSocketAddress("127.0.0.1", 0));
+            int senderPort = ((InetSocketAddress) sender.getLocalAddress()).getPort();
+
+            // the receiver sends its connect and keep alive messages to the
+            // sender, which ignores them
+            MotiveEndpoint endpoint = new MotiveEndpoint("benchmark", "127.0.0.1", senderPort,
+                    LOCAL_PORT, MotiveVersion.V2_1_1);
+            CommandStreamManager manager = new CommandStreamManager(endpoint);
+            final long[] latencies = new long[MEASURED_PACKETS];
+            manager.addFrameUpdateListener(() -> {
+                long latency = System.nanoTime() - sendTime;
+                int frame = (int) framesProcessed - WARMUP_PACKETS;
+                if (frame >= 0 && frame < latencies.length) {
+                    latencies[frame] = latency;
+                }
+                framesProcessed++;
+            });
+            framesProcessed = 0;
+
+            MotiveReceiver receiver = new MotiveReceiver(Arrays.asList(manager));
+            receiver.setSpinTime(spinTime);
+            Thread receiveThread = new Thread(receiver);
+            receiveThread.start();
+            // give the receiver time to bind its channel
+            Thread.sleep(200);
+
+            ByteBuffer packet = new SyntheticFrameSource(new CommandStreamManager(endpoint),
+                    BODIES, 0).encode(0);
+            InetSocketAddress target = new InetSocketAddress("127.0.0.1", LOCAL_PORT);
+            Random rng = new Random(1);
+            for (int i = 0; i < WARMUP_PACKETS + MEASURED_PACKETS; i++) {
+                LockSupport.parkNanos(MIN_GAP + (long) (rng.nextDouble() * (MAX_GAP - MIN_GAP)));
+                packet.rewind();
+                sendTime = System.nanoTime();
+                sender.send(packet, target);
+                // wait for the frame, so exactly one is in flight
+                long deadline = System.nanoTime() + 100_000_000L;
+                while (framesProcessed <= i && System.nanoTime() < deadline) {
+                    Thread.yield();
+                }
+            }
+            receiver.stop();
+            receiveThread.join();
+            return latencies;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+import java.util.concurrent.ForkJoinPool;
+
+import game.GameEngine;
+import game.GameSession;
+import game.SessionManager;
+
+/**
+ * Measures how SessionManager scales with the number of game sessions,
+ * running each session count on one worker thread and then on one worker
+ * per available processor.
+ *
+ * Every session runs its own GameEngine (with its lap timer, trajectories
+ * and kinematics) over the same stream of 10 bodies, as a Motive stream
+ * fanned out to many games would.
+ */
+public class SessionBenchmark {
+
+    private static final int BODIES = 10;
+    private static final int WARMUP_FRAMES = 2_000;
+    private static final int MEASURED_FRAMES = 5_000;
+    private static final int[] SESSION_COUNTS = { 1, 10, 100, 500 };
+
+    public static void main(String[] args) {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        System.out.println("available processors: " + processors);
+        System.out.printf("%9s %8s %14s %18s%n", "sessions", "threads", "us/frame",
+                "session-frames/s");
+        for (int sessions : SESSION_COUNTS) {
+            report(sessions, 1);
+            if (processors > 1) {
+                report(sessions, processors);
+            }
+        }
+    }
+
+    private static void report(int sessions, int threads) {
+        double frameTime = measure(sessions, threads);
+        System.out.printf("%9d %8d %14.1f %18.0f%n", sessions, threads, frameTime,
+                sessions * 1e6 / frameTime);
+    }
+
+    /**
+     * @param sessionCount the number of sessions
+     * @param threads the number of worker threads
+     * @return the mean time to publish and finish a frame, in microseconds
+     */
+    private static double measure(int sessionCount, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        SessionManager manager = new SessionManager(pool);
+        for (int i = 0; i < sessionCount; i++) {
+            manager.addSession(GameSession.forEngine("session " + i, new GameEngine()));
+        }
+
+        long start = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + MEASURED_FRAMES; frame++) {
+            if (frame == WARMUP_FRAMES) {
+                manager.awaitSessions();
+                start = System.nanoTime();
+            }
+            for (int id = 0; id < BODIES; id++) {
+                double angle = frame * 0.02 + id;
+                float x = (float) (0.8 * Math.cos(angle));
+                float y = (float) (0.8 * Math.sin(angle));
+                manager.update(id, x, y, 0.0f, 0, 0, 0, 1);
+            }
+            manager.update();
+        }
+        manager.awaitSessions();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        return elapsed / 1000.0 / MEASURED_FRAMES;
+    }
+
+}
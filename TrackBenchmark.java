@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import game.Track;
+
+/**
+ * Measures the cost of classifying a car's position against a complex
+ * track: a wavy outer boundary of 500 vertices, an infield of 300 and 20
+ * obstacles of 16 vertices each. The grid lookup (Track.classify) is
+ * compared with testing every polygon (Track.classifyExactly), and the
+ * two are checked to agree on every point.
+ */
+public class TrackBenchmark {
+
+    private static final int OUTER_VERTICES = 500;
+    private static final int INNER_VERTICES = 300;
+    private static final int OBSTACLES = 20;
+    private static final int OBSTACLE_VERTICES = 16;
+    private static final int POINTS = 1_000_000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        Track track = createTrack();
+        System.out.printf("polygons: %d  edge cells: %.2f%%%n", track.getPolygonCount(),
+                track.getEdgeCellFraction() * 100);
+
+        // random points over the room, a little beyond the outer boundary
+        Random rng = new Random(1);
+        float[] xs = new float[POINTS];
+        float[] ys = new float[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = (float) (rng.nextDouble() * 5 - 2.5);
+            ys[i] = (float) (rng.nextDouble() * 5 - 2.5);
+        }
+
+        int mismatches = 0;
+        int[] regionCounts = new int[3];
+        for (int i = 0; i < POINTS; i++) {
+            int region = track.classify(xs[i], ys[i]);
+            if (region != track.classifyExactly(xs[i], ys[i])) {
+                mismatches++;
+            }
+            regionCounts[Math.min(region, 0) + 2]++;
+        }
+        System.out.printf("off track: %d  on track: %d  in obstacles: %d  mismatches: %d%n",
+                regionCounts[0], regionCounts[1], regionCounts[2], mismatches);
+
+        // warm up both paths before timing them
+        long sink = 0;
+        sink += exact(track, xs, ys, POINTS / 10);
+        sink += grid(track, xs, ys, POINTS);
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            sink += grid(track, xs, ys, POINTS);
+        }
+        double gridTime = (System.nanoTime() - start) / (double) (ROUNDS * POINTS);
+
+        start = System.nanoTime();
+        sink += exact(track, xs, ys, POINTS);
+        double exactTime = (System.nanoTime() - start) / (double) POINTS;
+
+        System.out.printf("grid:  %8.1f ns/point%n", gridTime);
+        System.out.printf("exact: %8.1f ns/point%n", exactTime);
+        System.out.println("(" + sink + ")");
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static long grid(Track track, float[] xs, float[] ys, int points) {
+        long sum = 0;
+        for (int i = 0; i < points; i++) {
+            sum += track.classify(xs[i], ys[i]);
+        }
+        return sum;
+    }
+
+    private static long exact(Track track, float[] xs, float[] ys, int points) {
+        long sum = 0;
+        for (int i = 0; i < points; i++) {
+            sum += track.classifyExactly(xs[i], ys[i]);
+        }
+        return sum;
+    }
+
+    /**
+     * @return a ring-shaped track with wavy boundaries, with obstacles
+     * spaced around the ring
+     */
+    private static Track createTrack() {
+        float[] outer = wavyCircle(0, 0, 2.0, 0.15, 12, OUTER_VERTICES);
+        float[] inner = wavyCircle(0, 0, 0.9, 0.1, 7, INNER_VERTICES);
+        List<float[]> obstacles = new ArrayList<>();
+        for (int i = 0; i < OBSTACLES; i++) {
+            double angle = 2 * Math.PI * i / OBSTACLES;
+            obstacles.add(wavyCircle(1.45 * Math.cos(angle), 1.45 * Math.sin(angle),
+                    0.08, 0.02, 3, OBSTACLE_VERTICES));
+        }
+        return new Track(outer, inner, obstacles, Track.DEFAULT_CELL_SIZE);
+    }
+
+    private static float[] wavyCircle(double centerX, double centerY, double radius,
+            double amplitude, int waves, int vertices) {
+        float[] coordinates = new float[vertices * 2];
+        for (int v = 0; v < vertices; v++) {
+            double angle = 2 * Math.PI * v / vertices;
+            double r = radius + amplitude * Math.sin(waves * angle);
+            coordinates[2 * v] = (float) (centerX + r * Math.cos(angle));
+            coordinates[2 * v + 1] = (float) (centerY + r * Math.sin(angle));
+        }
+        return coordinates;
+    }
+
+}
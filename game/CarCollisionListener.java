@@ -0,0 +1,20 @@
+package game;
+
+/**
+ * A listener interface that allows listening for cars touching each
+ * other or narrowly missing each other
+ */
+public interface CarCollisionListener {
+    /**
+     * @param id1 the lower of the two cars' body ids
+     * @param id2 the higher of the two cars' body ids
+     * @param contact true if the cars touched, false if they came within
+     * the near miss distance of each other without touching
+     * @param gap the distance between the cars' bounding circles: the
+     * overlap (negative) when they touched, or the closest they came for
+     * a near miss
+     * @param time the time of the frame the event was detected in, from
+     * System.nanoTime()
+     */
+    void carCollision(int id1, int id2, boolean contact, float gap, long time);
+}
@@ -0,0 +1,319 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import motive.FrameUpdateListener;
+import motive.RigidBodyUpdateListener;
+
+/**
+ * This class detects cars touching or narrowly missing each other, at
+ * Motive's frame rate, treating each car as a circle around its rigid
+ * body.
+ *
+ * Rigid body updates only record each body's position; every pair of
+ * cars is checked when the frame ends. A sweep and prune broad phase
+ * keeps the bodies sorted by the left edge of their circles (grown by
+ * half the near miss distance), and only pairs whose extents overlap on
+ * both axes reach the exact distance test. The order is kept from frame
+ * to frame and re-sorted by insertion sort, which is close to linear
+ * since cars move little between frames. A body that isn't updated in a
+ * frame (one Motive no longer sends, for example) leaves the order, so it
+ * doesn't linger as an obstacle at its last position, and rejoins it
+ * when it's updated again.
+ *
+ * A pair's encounter begins when the cars come within the near miss
+ * distance and ends when they move apart again. Listeners are told once
+ * per encounter: when the cars first touch, or, if they never touched,
+ * with the closest they came when the encounter ends.
+ *
+ * The detector should be registered with a CommandStreamManager as both
+ * a rigid body and a frame update listener. Every update is made by the
+ * network thread, and state is kept in preallocated primitive arrays.
+ */
+public class CollisionDetector implements RigidBodyUpdateListener, FrameUpdateListener {
+
+    // the default largest body id (exclusive) the detector keeps state for
+    public static final int MAX_BODIES = LapTimer.MAX_BODIES;
+
+    // the default radius of a car's bounding circle, in meters
+    public static final float DEFAULT_RADIUS = 0.15f;
+    // the default gap within which cars that don't touch have a near miss
+    public static final float DEFAULT_NEAR_MISS_DISTANCE = 0.1f;
+
+    // pair states
+    private static final byte APART = 0;
+    private static final byte NEAR = 1;
+    private static final byte TOUCHED = 2;
+
+    private final int maxBodies;
+
+    // the latest position and the radius of each body, indexed by body id
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] radii;
+    private final boolean[] seen;
+    // the frame each body was last updated for, indexed by body id
+    private final int[] updatedFrames;
+
+    // the ids of the bodies updated in the last frame, sorted by the left
+    // edge of their grown circles (as of that frame), and those edges
+    private final int[] order;
+    private final float[] leftEdges;
+    private int bodyCount;
+
+    // the state of each pair, indexed by id1 * maxBodies + id2 (id1 < id2)
+    private final byte[] pairStates;
+    private final float[] closestGaps;
+    private final int[] pairFrames;
+    // the pairs in an encounter
+    private int[] closePairs = new int[64];
+    private int closePairCount;
+    private int frame;
+
+    private float nearMissDistance = DEFAULT_NEAR_MISS_DISTANCE;
+
+    private volatile long contactCount;
+    private volatile long nearMissCount;
+
+    private final List<CarCollisionListener> listeners = new ArrayList<>();
+
+    public CollisionDetector() {
+        this(MAX_BODIES);
+    }
+
+    /**
+     * @param maxBodies the largest body id (exclusive) to keep state for
+     */
+    public CollisionDetector(int maxBodies) {
+        this.maxBodies = maxBodies;
+        xs = new float[maxBodies];
+        ys = new float[maxBodies];
+        radii = new float[maxBodies];
+        seen = new boolean[maxBodies];
+        updatedFrames = new int[maxBodies];
+        order = new int[maxBodies];
+        leftEdges = new float[maxBodies];
+        pairStates = new byte[maxBodies * maxBodies];
+        closestGaps = new float[maxBodies * maxBodies];
+        pairFrames = new int[maxBodies * maxBodies];
+        Arrays.fill(radii, DEFAULT_RADIUS);
+    }
+
+    /**
+     * Sets the radius of a car's bounding circle. Like the near miss
+     * distance, this should be set before the detector receives frames.
+     * @param id the car's body id
+     * @param radius the radius, in meters
+     */
+    public void setRadius(int id, float radius) {
+        radii[id] = radius;
+    }
+
+    public float getRadius(int id) {
+        return radii[id];
+    }
+
+    /**
+     * @param distance the gap between two cars' circles within which the
+     * cars have a near miss, in meters
+     */
+    public void setNearMissDistance(float distance) {
+        nearMissDistance = distance;
+    }
+
+    public float getNearMissDistance() {
+        return nearMissDistance;
+    }
+
+    public void addCarCollisionListener(CarCollisionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return the number of times two cars have touched
+     */
+    public long getContactCount() {
+        return contactCount;
+    }
+
+    /**
+     * @return the number of near misses
+     */
+    public long getNearMissCount() {
+        return nearMissCount;
+    }
+
+    /**
+     * @return the number of pairs of cars within the near miss distance
+     * of each other as of the last frame
+     */
+    public int getClosePairCount() {
+        return closePairCount;
+    }
+
+    /**
+     * Method called by motive when a rigid body's location is updated.
+     * Only the position is recorded; cars are checked when the frame ends.
+     */
+    @Override
+    public void update(int id, float x, float y, float z) {
+        if (id < 0 || id >= maxBodies) {
+            return;
+        }
+        if (!seen[id]) {
+            // new bodies join the end of the order and are sorted into place
+            seen[id] = true;
+            order[bodyCount++] = id;
+        }
+        xs[id] = x;
+        ys[id] = y;
+        // the frame being built, counted when detect is called
+        updatedFrames[id] = frame + 1;
+    }
+
+    /**
+     * Method called once every rigid body of a frame has been updated,
+     * when no frame time is known
+     */
+    @Override
+    public void update() {
+        detect(System.nanoTime());
+    }
+
+    /**
+     * Method called by motive once every rigid body of a frame has been
+     * updated, with the frame's time
+     */
+    @Override
+    public void update(long time) {
+        detect(time);
+    }
+
+    /**
+     * Checks every pair of cars at their latest positions, notifying
+     * listeners of contacts and near misses
+     * @param time the time of the frame, in nanoseconds
+     */
+    public void detect(long time) {
+        frame++;
+        final float halfMargin = nearMissDistance / 2;
+        // drop the bodies missing from this frame, keeping the rest in order;
+        // their pairs aren't in range, so their encounters end below
+        int count = 0;
+        for (int i = 0; i < bodyCount; i++) {
+            final int id = order[i];
+            if (updatedFrames[id] != frame) {
+                seen[id] = false;
+                continue;
+            }
+            order[count] = id;
+            leftEdges[count] = xs[id] - radii[id] - halfMargin;
+            count++;
+        }
+        bodyCount = count;
+        sortOrder(count);
+
+        // sweep: each body is only tested against the bodies after it whose
+        // left edge is before its right edge
+        for (int i = 0; i < count; i++) {
+            final int id = order[i];
+            final float x = xs[id];
+            final float y = ys[id];
+            final float extent = radii[id] + halfMargin;
+            final float rightEdge = x + extent;
+            for (int j = i + 1; j < count && leftEdges[j] <= rightEdge; j++) {
+                final int other = order[j];
+                final float dy = ys[other] - y;
+                final float reach = radii[id] + radii[other] + nearMissDistance;
+                if (dy >= reach || dy <= -reach) {
+                    continue;
+                }
+                // exact test
+                final float dx = xs[other] - x;
+                final float distanceSquared = dx * dx + dy * dy;
+                if (distanceSquared >= reach * reach) {
+                    continue;
+                }
+                final float gap = (float) Math.sqrt(distanceSquared) - radii[id] - radii[other];
+                if (id < other) {
+                    pairInRange(id, other, gap, time);
+                } else {
+                    pairInRange(other, id, gap, time);
+                }
+            }
+        }
+        endEncounters(time);
+    }
+
+    /**
+     * Insertion sorts the order by left edge. Bodies move little between
+     * frames, so each is usually at most a few places from where it was.
+     */
+    private void sortOrder(int count) {
+        for (int i = 1; i < count; i++) {
+            final float edge = leftEdges[i];
+            if (edge >= leftEdges[i - 1]) {
+                continue;
+            }
+            final int id = order[i];
+            int j = i - 1;
+            while (j >= 0 && leftEdges[j] > edge) {
+                leftEdges[j + 1] = leftEdges[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            leftEdges[j + 1] = edge;
+            order[j + 1] = id;
+        }
+    }
+
+    private void pairInRange(int id1, int id2, float gap, long time) {
+        final int pair = id1 * maxBodies + id2;
+        if (pairStates[pair] == APART) {
+            pairStates[pair] = NEAR;
+            closestGaps[pair] = gap;
+            if (closePairCount == closePairs.length) {
+                closePairs = Arrays.copyOf(closePairs, closePairCount * 2);
+            }
+            closePairs[closePairCount++] = pair;
+        } else if (gap < closestGaps[pair]) {
+            closestGaps[pair] = gap;
+        }
+        pairFrames[pair] = frame;
+        if (gap < 0 && pairStates[pair] != TOUCHED) {
+            pairStates[pair] = TOUCHED;
+            contactCount++;
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).carCollision(id1, id2, true, gap, time);
+            }
+        }
+    }
+
+    /**
+     * Ends the encounter of every pair that wasn't in range this frame,
+     * reporting a near miss if the cars never touched
+     */
+    private void endEncounters(long time) {
+        int i = 0;
+        while (i < closePairCount) {
+            final int pair = closePairs[i];
+            if (pairFrames[pair] == frame) {
+                i++;
+                continue;
+            }
+            if (pairStates[pair] == NEAR) {
+                nearMissCount++;
+                final int id1 = pair / maxBodies;
+                final int id2 = pair % maxBodies;
+                for (int l = 0; l < listeners.size(); l++) {
+                    listeners.get(l).carCollision(id1, id2, false, closestGaps[pair], time);
+                }
+            }
+            pairStates[pair] = APART;
+            closePairs[i] = closePairs[--closePairCount];
+        }
+    }
+
+}
@@ -0,0 +1,376 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import motive.FrameUpdateListener;
+import motive.RigidBodyUpdateListener;
+import vector.Vector2D;
+
+/**
+ * This class holds the game's state and logic: the location of each car,
+ * the pickup the cars are chasing and the lap timer.
+ *
+ * The engine has no dependency on AWT or Swing, so it can be driven by
+ * a CommandStreamManager (or a SyntheticFrameSource) on a headless machine.
+ * Anything that wants to draw the game registers a GameRenderer, which is
+ * called each time the game's state changes.
+ *
+ * Rigid body updates only record each body's latest pose. The game itself
+ * advances in tick(), which is called at a fixed rate by a TickScheduler,
+ * so the speed of the game doesn't depend on Motive's frame rate or on
+ * the number of bodies being tracked.
+ */
+public class GameEngine implements RigidBodyUpdateListener {
+
+    // the largest body id (exclusive) that is treated as a car
+    public static final int MAX_CARS = LapTimer.MAX_BODIES;
+
+    // the default room lower X and Y limit
+    private static final double ROOM_X_LOWER_LIMIT = -1.0;
+    private static final double ROOM_Y_LOWER_LIMIT = -1.0;
+
+    // the default room length and width
+    private static final double ROOM_LENGTH = 2.0;
+    private static final double ROOM_WIDTH = 2.0;
+
+    // how much of each car's path is kept in the trajectory buffer
+    private static final int HISTORY_SECONDS = 10;
+    // the highest frame rate Motive is expected to stream at
+    private static final int MAX_FRAME_RATE = 360;
+
+    // the maximum distance before we consider a car having reached the pickup
+    private static final double PICKUP_RADIUS = 0.2;
+
+    // the size of the cells pickups are spawned from, in meters
+    private static final double SPAWN_CELL_SIZE = 0.05;
+
+    private double roomXLowerBound = ROOM_X_LOWER_LIMIT;
+    private double roomYLowerBound = ROOM_Y_LOWER_LIMIT;
+    private double roomWidth = ROOM_WIDTH;
+    private double roomLength = ROOM_LENGTH;
+
+    // the latest pose of each body, written by the network thread and
+    // drained by tick(). x and y are packed into a single long so they
+    // are always read as a pair.
+    private final AtomicLongArray latestPoses;
+    private final AtomicIntegerArray poseUpdated;
+    // one more than the largest body id seen so far
+    private volatile int bodyIDLimit;
+
+    // the location of each car as of the last tick, indexed by body id
+    private final double[] carX;
+    private final double[] carY;
+    private final boolean[] carActive;
+
+    private final Vector2D pickupLocation;
+
+    // the number of times a car has reached the pickup
+    private int pickupsCollected;
+
+    private final Random rng;
+
+    private final PickupSpawner spawner;
+
+    private final LapTimer lapTimer;
+
+    private final TrajectoryBuffer trajectories;
+
+    private final Kinematics kinematics;
+
+    private final TrackMonitor trackMonitor;
+
+    private final GhostRecorder ghosts;
+
+    private final CollisionDetector collisions;
+
+    private final List<GameRenderer> renderers;
+
+    public GameEngine() {
+        latestPoses = new AtomicLongArray(MAX_CARS);
+        poseUpdated = new AtomicIntegerArray(MAX_CARS);
+        carX = new double[MAX_CARS];
+        carY = new double[MAX_CARS];
+        carActive = new boolean[MAX_CARS];
+        // start the pick up at specific coordinates (for testing purposes)
+        pickupLocation = new Vector2D(-0.75, -0.75);
+        // instantiate the Random object for random number generation
+        rng = new Random();
+        spawner = new PickupSpawner(SPAWN_CELL_SIZE, rng);
+        spawner.setRoom(roomXLowerBound, roomYLowerBound, roomWidth, roomLength);
+        lapTimer = new LapTimer();
+        trajectories = new TrajectoryBuffer(HISTORY_SECONDS * MAX_FRAME_RATE);
+        kinematics = new Kinematics();
+        trackMonitor = new TrackMonitor();
+        ghosts = new GhostRecorder();
+        lapTimer.addGateCrossingListener(ghosts);
+        lapTimer.addLapCompletedListener(ghosts);
+        collisions = new CollisionDetector();
+        renderers = new ArrayList<>();
+    }
+
+    /**
+     * Adds a renderer, which will be called each time the game's state changes
+     * @param renderer the renderer to add
+     */
+    public void addRenderer(GameRenderer renderer) {
+        renderers.add(renderer);
+    }
+
+    /**
+     * Updates the room dimensions used by the game. Synchronized with
+     * tick(), since this is called from the Swing event thread.
+     * @param xLowerBound the left-most X coordinate of the room
+     * @param yLowerBound the bottom-most Y coordinate of the room
+     * @param width the width of the room
+     * @param length the length of the room
+     */
+    public synchronized void setRoomDimensions(double xLowerBound, double yLowerBound, double width, double length) {
+        roomXLowerBound = xLowerBound;
+        roomYLowerBound = yLowerBound;
+        roomWidth = width;
+        roomLength = length;
+        spawner.setRoom(xLowerBound, yLowerBound, width, length);
+        render();
+    }
+
+    public double getRoomXLowerBound() {
+        return roomXLowerBound;
+    }
+
+    public double getRoomYLowerBound() {
+        return roomYLowerBound;
+    }
+
+    public double getRoomWidth() {
+        return roomWidth;
+    }
+
+    public double getRoomLength() {
+        return roomLength;
+    }
+
+    /**
+     * @return one more than the largest car id seen so far
+     */
+    public int getCarIDLimit() {
+        return bodyIDLimit;
+    }
+
+    /**
+     * @param id a body id
+     * @return true if the body has been seen by the engine
+     */
+    public boolean isCarActive(int id) {
+        return carActive[id];
+    }
+
+    public double getCarX(int id) {
+        return carX[id];
+    }
+
+    public double getCarY(int id) {
+        return carY[id];
+    }
+
+    /**
+     * @return the pickup's location (should not be modified by the caller)
+     */
+    public Vector2D getPickupLocation() {
+        return pickupLocation;
+    }
+
+    public int getPickupsCollected() {
+        return pickupsCollected;
+    }
+
+    /**
+     * Returns the engine's lap timer, so gates can be added to it.
+     * The lap timer is registered alongside the engine by
+     * registerListeners.
+     * @return the engine's LapTimer
+     */
+    public LapTimer getLapTimer() {
+        return lapTimer;
+    }
+
+    /**
+     * Returns the engine's trajectory buffer, holding the recent path of
+     * each car. Like the lap timer, it is registered by registerListeners.
+     * @return the engine's TrajectoryBuffer
+     */
+    public TrajectoryBuffer getTrajectories() {
+        return trajectories;
+    }
+
+    /**
+     * Returns the engine's kinematics (speed, heading and so on of each
+     * car), which is also registered by registerListeners
+     * @return the engine's Kinematics
+     */
+    public Kinematics getKinematics() {
+        return kinematics;
+    }
+
+    /**
+     * Returns the engine's track monitor, reporting cars leaving the track
+     * or hitting obstacles. Like the lap timer, it is registered by
+     * registerListeners.
+     * @return the engine's TrackMonitor
+     */
+    public TrackMonitor getTrackMonitor() {
+        return trackMonitor;
+    }
+
+    /**
+     * Returns the engine's ghost recorder, keeping each car's best lap.
+     * Like the lap timer, it is registered by registerListeners.
+     * @return the engine's GhostRecorder
+     */
+    public GhostRecorder getGhosts() {
+        return ghosts;
+    }
+
+    /**
+     * Returns the engine's collision detector, reporting cars touching or
+     * narrowly missing each other. registerListeners registers it as both
+     * a rigid body and a frame update listener.
+     * @return the engine's CollisionDetector
+     */
+    public CollisionDetector getCollisions() {
+        return collisions;
+    }
+
+    /**
+     * Registers the engine and the components that must see every frame
+     * (lap timer, trajectories, kinematics, track monitor, ghost recorder
+     * and collision detector) with a source of frames, such as a
+     * CommandStreamManager or a GameSession:
+     *
+     *   engine.registerListeners(manager::addRigidBodyUpdateListener,
+     *           manager::addFrameUpdateListener);
+     *
+     * Gates and the track should be set up first.
+     * @param rigidBodyListeners adds a rigid body update listener to the source
+     * @param frameListeners adds a frame update listener to the source
+     */
+    public void registerListeners(Consumer<RigidBodyUpdateListener> rigidBodyListeners,
+            Consumer<FrameUpdateListener> frameListeners) {
+        rigidBodyListeners.accept(this);
+        rigidBodyListeners.accept(lapTimer);
+        rigidBodyListeners.accept(trajectories);
+        rigidBodyListeners.accept(kinematics);
+        rigidBodyListeners.accept(trackMonitor);
+        rigidBodyListeners.accept(ghosts);
+        rigidBodyListeners.accept(collisions);
+        frameListeners.accept(collisions);
+    }
+
+    /**
+     * @return the track the game is played on, or null if there is none
+     */
+    public Track getTrack() {
+        return trackMonitor.getTrack();
+    }
+
+    /**
+     * Sets the track the game is played on, and redraws the scene
+     * @param track the track, or null for none
+     */
+    public synchronized void setTrack(Track track) {
+        trackMonitor.setTrack(track);
+        render();
+    }
+
+    /**
+     * Method called by motive when an RC vehicle's location is updated.
+     * Only the latest pose is recorded; the game advances in tick().
+     */
+    @Override
+    public void update(int id, float x, float y, float z) {
+        if (id < 0 || id >= MAX_CARS) {
+            return;
+        }
+        latestPoses.set(id, ((long) Float.floatToRawIntBits(x) << 32)
+                | (Float.floatToRawIntBits(y) & 0xFFFFFFFFL));
+        poseUpdated.set(id, 1);
+        if (id >= bodyIDLimit) {
+            bodyIDLimit = id + 1;
+        }
+    }
+
+    /**
+     * Advances the game by one tick: takes the latest pose of each body,
+     * moves the pickup if a car reached it, and redraws the scene if
+     * anything changed
+     */
+    public synchronized void tick() {
+        boolean changed = false;
+        final int limit = bodyIDLimit;
+        for (int id = 0; id < limit; id++) {
+            if (poseUpdated.getAndSet(id, 0) == 0) {
+                continue;
+            }
+            long pose = latestPoses.get(id);
+            carX[id] = Float.intBitsToFloat((int) (pose >>> 32));
+            carY[id] = Float.intBitsToFloat((int) pose);
+            carActive[id] = true;
+            changed = true;
+        }
+        if (!changed) {
+            return;
+        }
+
+        // Move the pick up if a car is near it (if the room is too crowded
+        // to respawn it, it stays put and is collected on a later tick)
+        if (carNear(pickupLocation.x, pickupLocation.y) && respawnPickup()) {
+            pickupsCollected++;
+        }
+        // Redraw the scene with the updated information
+        render();
+    }
+
+    /**
+     * Moves the pickup to a random point at least PICKUP_RADIUS from every car
+     * @return false if there is no such point
+     */
+    private boolean respawnPickup() {
+        spawner.clearBlocks();
+        final int limit = bodyIDLimit;
+        for (int id = 0; id < limit; id++) {
+            if (carActive[id]) {
+                spawner.block(carX[id], carY[id], PICKUP_RADIUS);
+            }
+        }
+        return spawner.spawn(pickupLocation);
+    }
+
+    /**
+     * @return true if any car is within PICKUP_RADIUS of the given point
+     */
+    private boolean carNear(double x, double y) {
+        final int limit = bodyIDLimit;
+        for (int id = 0; id < limit; id++) {
+            if (!carActive[id]) {
+                continue;
+            }
+            double dx = carX[id] - x;
+            double dy = carY[id] - y;
+            if (dx * dx + dy * dy < PICKUP_RADIUS * PICKUP_RADIUS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void render() {
+        for (int i = 0; i < renderers.size(); i++) {
+            renderers.get(i).render(this);
+        }
+    }
+
+}
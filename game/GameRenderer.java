@@ -0,0 +1,12 @@
+package game;
+
+/**
+ * A renderer that draws the state of a GameEngine.
+ * 
+ * Renderers are called on the thread that updated the engine, so
+ * implementations that draw on another thread (such as the Swing event
+ * thread) should only schedule a redraw from render().
+ */
+public interface GameRenderer {
+    void render(GameEngine engine);
+}
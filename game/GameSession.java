@@ -0,0 +1,112 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import motive.FrameUpdateListener;
+import motive.RigidBodyUpdateListener;
+
+/**
+ * One of several independent games run by a SessionManager over the same
+ * Motive stream, e.g. a practice mode and a scoring mode at once.
+ *
+ * A session has its own listeners, much like a CommandStreamManager, and
+ * may be limited to a range of body ids so that it only sees a subset of
+ * the cars. Each session should own its game state (its own GameEngine,
+ * LapTimer and so on); the SessionManager never runs a session on two
+ * threads at once and runs its frames in order, so that state needs no
+ * synchronization between the session's own listeners.
+ */
+public class GameSession {
+
+    private final String name;
+    private final int firstBodyID;
+    private final int lastBodyID;
+
+    private final List<RigidBodyUpdateListener> rigidBodyUpdateListeners;
+    private final List<FrameUpdateListener> frameUpdateListeners;
+
+    /**
+     * Creates a session that sees every body
+     * @param name the session's name, used when reporting errors
+     */
+    public GameSession(String name) {
+        this(name, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a session that sees only the bodies with ids in a range
+     * @param name the session's name, used when reporting errors
+     * @param firstBodyID the lowest body id the session sees
+     * @param lastBodyID the highest body id the session sees
+     */
+    public GameSession(String name, int firstBodyID, int lastBodyID) {
+        if (firstBodyID > lastBodyID) {
+            throw new IllegalArgumentException("Empty body id range");
+        }
+        this.name = name;
+        this.firstBodyID = firstBodyID;
+        this.lastBodyID = lastBodyID;
+        rigidBodyUpdateListeners = new ArrayList<>();
+        frameUpdateListeners = new ArrayList<>();
+    }
+
+    /**
+     * Creates a session running a game engine, with the engine's lap timer,
+     * trajectories, kinematics, track monitor, ghost recorder and collision
+     * detector fed every frame and the engine ticked once per frame
+     * @param name the session's name
+     * @param engine the session's own engine
+     * @return the session
+     */
+    public static GameSession forEngine(String name, GameEngine engine) {
+        GameSession session = new GameSession(name);
+        engine.registerListeners(session::addRigidBodyUpdateListener,
+                session::addFrameUpdateListener);
+        session.addFrameUpdateListener(engine::tick);
+        return session;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Adds a listener called with each body in the session's range.
+     * Listeners should be added before the session is added to a
+     * SessionManager.
+     */
+    public void addRigidBodyUpdateListener(RigidBodyUpdateListener listener) {
+        rigidBodyUpdateListeners.add(listener);
+    }
+
+    /**
+     * Adds a listener called once at the end of each frame
+     */
+    public void addFrameUpdateListener(FrameUpdateListener listener) {
+        frameUpdateListeners.add(listener);
+    }
+
+    /**
+     * Passes one frame to the session's listeners. Called by a
+     * SessionManager worker thread.
+     */
+    void deliver(SessionManager.Frame frame) {
+        final int listenerCount = rigidBodyUpdateListeners.size();
+        for (int body = 0; body < frame.bodyCount; body++) {
+            final int id = frame.ids[body];
+            if (id < firstBodyID || id > lastBodyID) {
+                continue;
+            }
+            for (int i = 0; i < listenerCount; i++) {
+                rigidBodyUpdateListeners.get(i).update(id, frame.x[body], frame.y[body],
+                        frame.z[body], frame.qx[body], frame.qy[body], frame.qz[body],
+                        frame.qw[body], frame.time);
+            }
+        }
+        for (int i = 0; i < frameUpdateListeners.size(); i++) {
+            frameUpdateListeners.get(i).update(frame.time);
+        }
+    }
+
+}
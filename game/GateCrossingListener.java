@@ -0,0 +1,14 @@
+package game;
+
+/**
+ * A listener interface that allows listening for rigid bodies
+ * crossing the timing gates of a LapTimer
+ */
+public interface GateCrossingListener {
+    /**
+     * @param id the id of the rigid body that crossed the gate
+     * @param gate the index of the gate that was crossed (0 is start/finish)
+     * @param time the interpolated crossing time, in nanoseconds
+     */
+    void gateCrossed(int id, int gate, long time);
+}
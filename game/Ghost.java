@@ -0,0 +1,130 @@
+package game;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A recorded lap of one body, replayed as a ghost alongside the live car.
+ *
+ * Samples are kept as three parallel arrays: each sample's time since the
+ * lap started (in microseconds, so a lap may last up to 35 minutes) and
+ * its X and Y coordinates. The arrays are buffers so that a ghost can be
+ * backed directly by a memory-mapped GhostFile instead of being copied
+ * out of it. Sampling a ghost costs a binary search over its times, so
+ * drawing any number of ghosts costs O(log n) per ghost per frame.
+ *
+ * A ghost is immutable, so it can be shared by any number of threads.
+ * The first sample may be before the start of the lap (it is the last
+ * sample of the previous lap), so positions just after the start line
+ * can be interpolated.
+ */
+public class Ghost {
+
+    private final int id;
+    private final long lapTime;
+    private final IntBuffer times;
+    private final FloatBuffer xs;
+    private final FloatBuffer ys;
+
+    /**
+     * @param id the id of the body that drove the lap
+     * @param lapTime the duration of the lap, in nanoseconds
+     * @param times each sample's time since the start of the lap, in
+     * microseconds, in increasing order
+     * @param xs the X coordinate of each sample
+     * @param ys the Y coordinate of each sample
+     */
+    Ghost(int id, long lapTime, IntBuffer times, FloatBuffer xs, FloatBuffer ys) {
+        if (times.remaining() == 0 || times.remaining() != xs.remaining()
+                || times.remaining() != ys.remaining()) {
+            throw new IllegalArgumentException("A ghost needs the same number of times, "
+                    + "X and Y coordinates, and at least one sample");
+        }
+        this.id = id;
+        this.lapTime = lapTime;
+        // absolute gets only, so the buffers are never modified
+        this.times = times.slice();
+        this.xs = xs.slice();
+        this.ys = ys.slice();
+    }
+
+    /**
+     * @return the id of the body that drove the lap
+     */
+    public int getID() {
+        return id;
+    }
+
+    /**
+     * @return the duration of the lap, in nanoseconds
+     */
+    public long getLapTime() {
+        return lapTime;
+    }
+
+    public int getSampleCount() {
+        return times.limit();
+    }
+
+    /**
+     * @param sample a sample index
+     * @return the sample's time since the start of the lap, in microseconds
+     */
+    public int getTime(int sample) {
+        return times.get(sample);
+    }
+
+    public float getX(int sample) {
+        return xs.get(sample);
+    }
+
+    public float getY(int sample) {
+        return ys.get(sample);
+    }
+
+    /**
+     * Finds where the ghost was at a time during its lap, interpolating
+     * between the samples either side of it. Times before the first
+     * sample or after the last are clamped to them.
+     * @param elapsed the time since the start of the lap, in nanoseconds
+     * @param position receives the X and Y coordinates
+     */
+    public void sample(long elapsed, float[] position) {
+        final long time = elapsed / 1000;
+        // find the last sample at or before the time
+        int low = 0;
+        int high = times.limit() - 1;
+        if (time <= times.get(low)) {
+            high = low;
+        } else if (time >= times.get(high)) {
+            low = high;
+        } else {
+            // invariant: times[low] <= time < times[high]
+            while (high - low > 1) {
+                final int middle = (low + high) >>> 1;
+                if (times.get(middle) <= time) {
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+        }
+        final float x1 = xs.get(low);
+        final float y1 = ys.get(low);
+        if (low == high) {
+            position[0] = x1;
+            position[1] = y1;
+            return;
+        }
+        final float t = (float) (time - times.get(low)) / (times.get(high) - times.get(low));
+        position[0] = x1 + t * (xs.get(high) - x1);
+        position[1] = y1 + t * (ys.get(high) - y1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ghost of body %d: %.3f s, %d samples", id, lapTime / 1e9,
+                getSampleCount());
+    }
+
+}
@@ -0,0 +1,140 @@
+package game;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes ghosts in a file laid out so that it can be memory
+ * mapped and used in place: reading a file only checks its headers, and
+ * each ghost's samples are views of the mapped file rather than copies.
+ *
+ * The file is little-endian, and every value is 4-byte aligned:
+ *   int    magic ("GHST")
+ *   int    format version
+ *   int    number of ghosts
+ *   int    reserved (0)
+ * then for each ghost:
+ *   int    body id
+ *   int    number of samples, n
+ *   long   lap time, in nanoseconds
+ *   int[n]   sample times since the start of the lap, in microseconds
+ *   float[n] X coordinates
+ *   float[n] Y coordinates
+ */
+public class GhostFile {
+
+    private static final int MAGIC = 0x54534847; // "GHST", little-endian
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16;
+    private static final int GHOST_HEADER_SIZE = 16;
+
+    private GhostFile() {}
+
+    /**
+     * Maps a ghost file into memory
+     * @param path the file
+     * @return the ghosts in the file, backed by the mapping
+     * @throws IOException if the file can't be read or isn't a ghost file
+     */
+    public static List<Ghost> read(Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " isn't a ghost file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(path + " has unsupported version " + buffer.getInt(4));
+        }
+        final int count = buffer.getInt(8);
+        List<Ghost> ghosts = new ArrayList<>(Math.max(0, Math.min(count, 1024)));
+        int position = FILE_HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            if (buffer.limit() - position < GHOST_HEADER_SIZE) {
+                throw new IOException(path + " is truncated");
+            }
+            final int id = buffer.getInt(position);
+            final int samples = buffer.getInt(position + 4);
+            final long lapTime = buffer.getLong(position + 8);
+            position += GHOST_HEADER_SIZE;
+            final long arraySize = samples * 4L;
+            if (samples <= 0 || buffer.limit() - position < arraySize * 3) {
+                throw new IOException(path + " is truncated");
+            }
+            final int size = (int) arraySize;
+            ghosts.add(new Ghost(id, lapTime,
+                    view(buffer, position, size).asIntBuffer(),
+                    view(buffer, position + size, size).asFloatBuffer(),
+                    view(buffer, position + 2 * size, size).asFloatBuffer()));
+            position += 3 * size;
+        }
+        return ghosts;
+    }
+
+    private static ByteBuffer view(ByteBuffer buffer, int position, int size) {
+        // slices are big-endian whatever the order of the buffer
+        return buffer.slice(position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes ghosts to a file. The ghosts are written to a temporary file
+     * that then replaces the file, so ghosts mapped from the old file (even
+     * ones being written) stay valid.
+     * @param path the file
+     * @param ghosts the ghosts to write
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Path path, List<Ghost> ghosts) throws IOException {
+        long size = FILE_HEADER_SIZE;
+        for (Ghost ghost : ghosts) {
+            size += GHOST_HEADER_SIZE + ghost.getSampleCount() * 12L;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too many samples to write");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(ghosts.size()).putInt(0);
+        for (Ghost ghost : ghosts) {
+            final int samples = ghost.getSampleCount();
+            buffer.putInt(ghost.getID()).putInt(samples).putLong(ghost.getLapTime());
+            for (int i = 0; i < samples; i++) {
+                buffer.putInt(ghost.getTime(i));
+            }
+            for (int i = 0; i < samples; i++) {
+                buffer.putFloat(ghost.getX(i));
+            }
+            for (int i = 0; i < samples; i++) {
+                buffer.putFloat(ghost.getY(i));
+            }
+        }
+        buffer.flip();
+
+        Path absolute = path.toAbsolutePath();
+        Path temporary = Files.createTempFile(absolute.getParent(),
+                absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package game;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import motive.RigidBodyUpdateListener;
+
+/**
+ * This class records each body's laps and keeps its best lap as a Ghost.
+ *
+ * The recorder listens to a LapTimer's start/finish crossings to know
+ * where laps begin, and to its completed laps to know which laps count
+ * (a lap that skipped a sector is never completed). It should be
+ * registered directly with a CommandStreamManager, like the lap timer,
+ * so that it records every frame. Samples of the lap in progress are
+ * appended to per-body primitive arrays, which grow (by doubling) during
+ * the first laps and are reused from then on. A Ghost is only created
+ * when a lap beats the body's best, which is the only time the recorder
+ * allocates once it's warmed up.
+ *
+ * Samples and crossings are recorded by the network thread; ghosts and
+ * lap start times may be read by any thread.
+ */
+public class GhostRecorder implements RigidBodyUpdateListener, GateCrossingListener,
+        LapCompletedListener {
+
+    // the largest body id (exclusive) the recorder will keep laps for
+    public static final int MAX_BODIES = LapTimer.MAX_BODIES;
+
+    // the most samples recorded per lap; longer laps aren't kept
+    public static final int MAX_LAP_SAMPLES = 1 << 20;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // samples of the lap in progress for each body, indexed by body id
+    private final float[][] xs = new float[MAX_BODIES][];
+    private final float[][] ys = new float[MAX_BODIES][];
+    private final long[][] times = new long[MAX_BODIES][];
+    private final int[] sampleCounts = new int[MAX_BODIES];
+    // false once a lap has too many samples, until the next lap starts
+    private final boolean[] recording = new boolean[MAX_BODIES];
+
+    // the time each body's lap in progress started, or 0 if none
+    private final AtomicLongArray lapStartTimes = new AtomicLongArray(MAX_BODIES);
+    private final AtomicReferenceArray<Ghost> bestLaps = new AtomicReferenceArray<>(MAX_BODIES);
+
+    /**
+     * Method called with a rigid body's location when no frame time is
+     * known. The sample is timestamped with the time it was received.
+     */
+    @Override
+    public void update(int id, float x, float y, float z) {
+        record(id, x, y, System.nanoTime());
+    }
+
+    /**
+     * Method called by motive with a rigid body's pose; the sample is
+     * timestamped with the time of the frame it was tracked in
+     */
+    @Override
+    public void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw, long time) {
+        record(id, x, y, time);
+    }
+
+    /**
+     * Appends a sample to a body's lap in progress
+     * @param id the body's id
+     * @param x the body's X coordinate
+     * @param y the body's Y coordinate
+     * @param time the time of the sample, in nanoseconds
+     */
+    public void record(int id, float x, float y, long time) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        // with no lap in progress (before the first crossing, or after a
+        // lap too long to keep) only the latest sample is kept, since it
+        // starts the next lap
+        int count = recording[id] ? sampleCounts[id] : 0;
+        if (xs[id] == null) {
+            xs[id] = new float[INITIAL_CAPACITY];
+            ys[id] = new float[INITIAL_CAPACITY];
+            times[id] = new long[INITIAL_CAPACITY];
+        } else if (count == xs[id].length) {
+            if (count == MAX_LAP_SAMPLES) {
+                // too long to keep; wait for the next lap
+                recording[id] = false;
+                count = 0;
+            } else {
+                xs[id] = Arrays.copyOf(xs[id], count * 2);
+                ys[id] = Arrays.copyOf(ys[id], count * 2);
+                times[id] = Arrays.copyOf(times[id], count * 2);
+            }
+        }
+        xs[id][count] = x;
+        ys[id][count] = y;
+        times[id][count] = time;
+        sampleCounts[id] = count + 1;
+    }
+
+    /**
+     * Method called by the lap timer when a body completes a lap, just
+     * before the crossing that starts its next lap. The lap in progress
+     * is kept if it's the body's best.
+     */
+    @Override
+    public void lapCompleted(int id, int lap, long lapTime) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        final int count = sampleCounts[id];
+        final long lapStart = lapStartTimes.get(id);
+        if (lapStart != 0 && recording[id] && count > 0) {
+            final Ghost best = bestLaps.get(id);
+            if (best == null || lapTime < best.getLapTime()) {
+                bestLaps.set(id, createGhost(id, lapStart, lapTime, count));
+            }
+        }
+    }
+
+    /**
+     * Method called by the lap timer when a body crosses a gate. Crossing
+     * the start/finish gate starts the next lap.
+     */
+    @Override
+    public void gateCrossed(int id, int gate, long time) {
+        if (gate != 0 || id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        final int count = sampleCounts[id];
+        // the last sample before the line starts the next lap, so the
+        // ghost can be interpolated from the line onwards
+        if (count > 0) {
+            xs[id][0] = xs[id][count - 1];
+            ys[id][0] = ys[id][count - 1];
+            times[id][0] = times[id][count - 1];
+            sampleCounts[id] = 1;
+        }
+        recording[id] = true;
+        lapStartTimes.set(id, time);
+    }
+
+    private Ghost createGhost(int id, long lapStart, long lapTime, int count) {
+        final int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = (int) ((times[id][i] - lapStart) / 1000);
+        }
+        return new Ghost(id, lapTime, IntBuffer.wrap(offsets),
+                FloatBuffer.wrap(Arrays.copyOf(xs[id], count)),
+                FloatBuffer.wrap(Arrays.copyOf(ys[id], count)));
+    }
+
+    /**
+     * @param id a body id
+     * @return the time the body's lap in progress started, in
+     * nanoseconds, or 0 if it hasn't crossed the start/finish line
+     */
+    public long getLapStartTime(int id) {
+        return lapStartTimes.get(id);
+    }
+
+    /**
+     * @param id a body id
+     * @return the body's best lap, or null if it has none
+     */
+    public Ghost getBestLap(int id) {
+        return bestLaps.get(id);
+    }
+
+    /**
+     * @return every body's best lap, in order of body id
+     */
+    public List<Ghost> getBestLaps() {
+        List<Ghost> ghosts = new ArrayList<>();
+        for (int id = 0; id < MAX_BODIES; id++) {
+            Ghost ghost = bestLaps.get(id);
+            if (ghost != null) {
+                ghosts.add(ghost);
+            }
+        }
+        return ghosts;
+    }
+
+    /**
+     * Sets best laps, for example ones read from a GhostFile. A lap
+     * replaces a body's best only if it's faster. This should be called
+     * before the recorder receives frames.
+     * @param ghosts the laps
+     */
+    public void addBestLaps(List<Ghost> ghosts) {
+        for (Ghost ghost : ghosts) {
+            final int id = ghost.getID();
+            if (id < 0 || id >= MAX_BODIES) {
+                continue;
+            }
+            final Ghost best = bestLaps.get(id);
+            if (best == null || ghost.getLapTime() < best.getLapTime()) {
+                bestLaps.set(id, ghost);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package game;
+
+import motive.RigidBodyUpdateListener;
+
+/**
+ * This class computes live kinematics for each rigid body: speed,
+ * acceleration, heading and heading rate, along with top speed, distance
+ * traveled and running statistics of speed.
+ *
+ * Everything is computed incrementally from consecutive updates, in O(1)
+ * per update and without keeping any history. Speed, acceleration and
+ * heading rate are exponentially smoothed, since differences between
+ * frames only a few milliseconds apart are noisy. The mean and variance
+ * of speed are kept with Welford's algorithm.
+ *
+ * The class should be registered directly with a CommandStreamManager so
+ * that it sees every frame. Values are written by the network thread and
+ * may be read by any thread (for overlays or exports); each value is read
+ * individually, so values read together may come from different frames.
+ */
+public class Kinematics implements RigidBodyUpdateListener {
+
+    // the largest body id (exclusive) kinematics are kept for
+    public static final int MAX_BODIES = LapTimer.MAX_BODIES;
+
+    // time constant of the exponential smoothing, in seconds
+    private static final double SMOOTHING_TIME_CONSTANT = 0.05;
+
+    // samples further apart than this restart the body's derivatives,
+    // since the body was most likely lost by the cameras in between
+    private static final long MAX_SAMPLE_GAP = 250_000_000L; // 250 ms
+
+    // previous sample for each body, indexed by body id
+    private final float[] lastX = new float[MAX_BODIES];
+    private final float[] lastY = new float[MAX_BODIES];
+    private final long[] lastTime = new long[MAX_BODIES];
+    private final boolean[] hasLast = new boolean[MAX_BODIES];
+
+    // smoothed values for each body
+    private final double[] speed = new double[MAX_BODIES];
+    private final double[] acceleration = new double[MAX_BODIES];
+    private final double[] heading = new double[MAX_BODIES];
+    private final double[] headingRate = new double[MAX_BODIES];
+
+    // accumulated values for each body
+    private final double[] topSpeed = new double[MAX_BODIES];
+    private final double[] distance = new double[MAX_BODIES];
+
+    // Welford running statistics of (smoothed) speed for each body
+    private final long[] speedSamples = new long[MAX_BODIES];
+    private final double[] speedMean = new double[MAX_BODIES];
+    private final double[] speedM2 = new double[MAX_BODIES];
+
+    /**
+     * Method called by motive with a rigid body's location only; the
+     * body's heading is left unchanged
+     */
+    @Override
+    public void update(int id, float x, float y, float z) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        record(id, x, y, heading[id], System.nanoTime());
+    }
+
+    /**
+     * Method called with a rigid body's location and orientation when no
+     * frame time is known. The sample is timestamped with the time it was
+     * received.
+     */
+    @Override
+    public void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw) {
+        update(id, x, y, z, qx, qy, qz, qw, System.nanoTime());
+    }
+
+    /**
+     * Method called by motive with a rigid body's location and orientation.
+     * The sample is timestamped with the time of the frame it was tracked in.
+     */
+    @Override
+    public void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw, long time) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        // rotation around the Z axis (yaw), in radians counterclockwise from +X
+        // thanks to https://automaticaddison.com/how-to-convert-a-quaternion-to-a-rotation-matrix/
+        double yaw = Math.atan2(2 * (qw * qz + qx * qy), 1 - 2 * (qy * qy + qz * qz));
+        record(id, x, y, yaw, time);
+    }
+
+    /**
+     * Updates a body's kinematics with a new sample
+     * @param id the body's id
+     * @param x the body's X coordinate
+     * @param y the body's Y coordinate
+     * @param yaw the direction the body is facing, in radians
+     * @param time the time of the sample, in nanoseconds
+     */
+    public void record(int id, float x, float y, double yaw, long time) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        final long elapsed = time - lastTime[id];
+        if (!hasLast[id] || elapsed > MAX_SAMPLE_GAP) {
+            restart(id, x, y, yaw, time);
+            return;
+        }
+        if (elapsed <= 0) {
+            return;
+        }
+        final double dt = elapsed / 1e9;
+        final double alpha = 1 - Math.exp(-dt / SMOOTHING_TIME_CONSTANT);
+
+        final double dx = x - lastX[id];
+        final double dy = y - lastY[id];
+        final double step = Math.sqrt(dx * dx + dy * dy);
+        distance[id] += step;
+
+        // speed is smoothed from 0 after a restart, rather than starting at
+        // the first raw step, which is noisy when two samples arrive close together
+        final double previousSpeed = speed[id];
+        speed[id] += alpha * (step / dt - speed[id]);
+        acceleration[id] += alpha * ((speed[id] - previousSpeed) / dt - acceleration[id]);
+
+        // wrap the change in heading into [-pi, pi]
+        double turn = yaw - heading[id];
+        turn -= 2 * Math.PI * Math.floor((turn + Math.PI) / (2 * Math.PI));
+        headingRate[id] += alpha * (turn / dt - headingRate[id]);
+        heading[id] = yaw;
+
+        if (speed[id] > topSpeed[id]) {
+            topSpeed[id] = speed[id];
+        }
+
+        final long n = ++speedSamples[id];
+        final double delta = speed[id] - speedMean[id];
+        speedMean[id] += delta / n;
+        speedM2[id] += delta * (speed[id] - speedMean[id]);
+
+        lastX[id] = x;
+        lastY[id] = y;
+        lastTime[id] = time;
+    }
+
+    /**
+     * Starts a body's derivatives over, keeping its accumulated values
+     */
+    private void restart(int id, float x, float y, double yaw, long time) {
+        lastX[id] = x;
+        lastY[id] = y;
+        lastTime[id] = time;
+        hasLast[id] = true;
+        speed[id] = 0;
+        acceleration[id] = 0;
+        heading[id] = yaw;
+        headingRate[id] = 0;
+    }
+
+    /**
+     * @param id a body id
+     * @return the body's smoothed speed, in meters per second
+     */
+    public double getSpeed(int id) {
+        return speed[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the body's smoothed rate of change of speed, in meters per second squared
+     */
+    public double getAcceleration(int id) {
+        return acceleration[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the direction the body is facing, in radians counterclockwise from +X
+     */
+    public double getHeading(int id) {
+        return heading[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the body's smoothed turning rate, in radians per second
+     * (positive is counterclockwise)
+     */
+    public double getHeadingRate(int id) {
+        return headingRate[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the highest smoothed speed the body has reached, in meters per second
+     */
+    public double getTopSpeed(int id) {
+        return topSpeed[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the total distance the body has traveled, in meters
+     */
+    public double getDistance(int id) {
+        return distance[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the mean of the body's smoothed speed over all samples,
+     * in meters per second
+     */
+    public double getMeanSpeed(int id) {
+        return speedMean[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the standard deviation of the body's smoothed speed over
+     * all samples, in meters per second
+     */
+    public double getSpeedStandardDeviation(int id) {
+        final long n = speedSamples[id];
+        return n < 2 ? 0 : Math.sqrt(speedM2[id] / (n - 1));
+    }
+
+    /**
+     * @param id a body id
+     * @return the number of samples the body's statistics are based on
+     */
+    public long getSampleCount(int id) {
+        return speedSamples[id];
+    }
+
+}
@@ -0,0 +1,14 @@
+package game;
+
+/**
+ * A listener interface that allows listening for rigid bodies
+ * completing a lap of the start/finish gate of a LapTimer
+ */
+public interface LapCompletedListener {
+    /**
+     * @param id the id of the rigid body that completed the lap
+     * @param lap the number of laps the body has completed, starting at 1
+     * @param lapTime the duration of the lap, in nanoseconds
+     */
+    void lapCompleted(int id, int lap, long lapTime);
+}
@@ -0,0 +1,277 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import motive.MotiveEndpoint;
+import motive.RigidBodyUpdateListener;
+
+/**
+ * This class times laps by detecting when rigid bodies cross gates,
+ * which are line segments defined in room coordinates.
+ *
+ * Gate 0 is the start/finish line; any other gates are sector gates.
+ * A body crosses a gate when the segment between its previous and current
+ * position intersects the gate while moving from the gate's left side
+ * to its right side (as seen when walking from the gate's first endpoint
+ * to its second). Crossing times are linearly interpolated between the
+ * two samples, so they are finer than Motive's frame interval.
+ *
+ * Crossing the start/finish line starts a lap, and the lap is completed
+ * at the next crossing only if every sector gate was crossed in order in
+ * between; otherwise (a cut course) the lap is discarded and a new one
+ * starts. A body that backs over the last gate it crossed must cross it
+ * again, so one jittering over a line can't string crossings together.
+ *
+ * The timer should be registered directly with a CommandStreamManager so
+ * that it sees every frame at Motive's full rate. Per-body and per-gate
+ * state is kept in preallocated primitive arrays, so updates never
+ * allocate. Gates should be added before the timer is registered.
+ */
+public class LapTimer implements RigidBodyUpdateListener {
+
+    // the largest body id (exclusive) the timer will keep state for: the
+    // id space every arena's bodies share
+    public static final int MAX_BODIES = MotiveEndpoint.MAX_BODY_IDS;
+    // the maximum number of gates (start/finish plus sectors)
+    public static final int MAX_GATES = 64;
+
+    // samples further apart than this are not interpolated between,
+    // since the body was most likely lost by the cameras in between
+    private static final long MAX_SAMPLE_GAP = 250_000_000L; // 250 ms
+
+    // gate endpoints, indexed by gate
+    private final float[] gateX1 = new float[MAX_GATES];
+    private final float[] gateY1 = new float[MAX_GATES];
+    private final float[] gateX2 = new float[MAX_GATES];
+    private final float[] gateY2 = new float[MAX_GATES];
+    private int gateCount;
+
+    // previous sample for each body, indexed by body id
+    private final float[] lastX = new float[MAX_BODIES];
+    private final float[] lastY = new float[MAX_BODIES];
+    private final long[] lastTime = new long[MAX_BODIES];
+    private final boolean[] hasLast = new boolean[MAX_BODIES];
+
+    // lap information for each body, indexed by body id
+    private final long[] lapStartTime = new long[MAX_BODIES];
+    private final boolean[] lapStarted = new boolean[MAX_BODIES];
+    // the gate each body must cross next for its lap to count: a sector
+    // gate, or 0 once every sector has been crossed
+    private final int[] nextGate = new int[MAX_BODIES];
+    private final int[] lapCount = new int[MAX_BODIES];
+    private final long[] lastLapTime = new long[MAX_BODIES];
+    private final long[] bestLapTime = new long[MAX_BODIES];
+
+    private final List<GateCrossingListener> gateCrossingListeners;
+    private final List<LapCompletedListener> lapCompletedListeners;
+
+    public LapTimer() {
+        gateCrossingListeners = new ArrayList<>();
+        lapCompletedListeners = new ArrayList<>();
+    }
+
+    /**
+     * Adds a gate to the timer. The first gate added is the start/finish line.
+     * @param x1 the X coordinate of the gate's first endpoint
+     * @param y1 the Y coordinate of the gate's first endpoint
+     * @param x2 the X coordinate of the gate's second endpoint
+     * @param y2 the Y coordinate of the gate's second endpoint
+     * @return the index of the new gate
+     */
+    public int addGate(float x1, float y1, float x2, float y2) {
+        if (gateCount == MAX_GATES) {
+            throw new IllegalStateException("Gate limit of " + MAX_GATES + " reached");
+        }
+        gateX1[gateCount] = x1;
+        gateY1[gateCount] = y1;
+        gateX2[gateCount] = x2;
+        gateY2[gateCount] = y2;
+        return gateCount++;
+    }
+
+    public int getGateCount() {
+        return gateCount;
+    }
+
+    public float getGateX1(int gate) {
+        return gateX1[gate];
+    }
+
+    public float getGateY1(int gate) {
+        return gateY1[gate];
+    }
+
+    public float getGateX2(int gate) {
+        return gateX2[gate];
+    }
+
+    public float getGateY2(int gate) {
+        return gateY2[gate];
+    }
+
+    public void addGateCrossingListener(GateCrossingListener listener) {
+        gateCrossingListeners.add(listener);
+    }
+
+    public void addLapCompletedListener(LapCompletedListener listener) {
+        lapCompletedListeners.add(listener);
+    }
+
+    /**
+     * @param id a body id
+     * @return the number of laps the body has completed
+     */
+    public int getLapCount(int id) {
+        return lapCount[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the body's most recent lap time in nanoseconds, or 0 if none
+     */
+    public long getLastLapTime(int id) {
+        return lastLapTime[id];
+    }
+
+    /**
+     * @param id a body id
+     * @return the body's best lap time in nanoseconds, or 0 if none
+     */
+    public long getBestLapTime(int id) {
+        return bestLapTime[id];
+    }
+
+    /**
+     * Method called with a rigid body's location when no frame time is
+     * known. The sample is timestamped with the time it was received.
+     */
+    @Override
+    public void update(int id, float x, float y, float z) {
+        update(id, x, y, System.nanoTime());
+    }
+
+    /**
+     * Method called by motive with a rigid body's pose; the sample is
+     * timestamped with the time of the frame it was tracked in
+     */
+    @Override
+    public void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw, long time) {
+        update(id, x, y, time);
+    }
+
+    /**
+     * Records a new sample for a body, checking the segment between
+     * its previous and current position against every gate
+     * @param id the body's id
+     * @param x the body's X coordinate
+     * @param y the body's Y coordinate
+     * @param time the time of the sample, in nanoseconds
+     */
+    public void update(int id, float x, float y, long time) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        if (hasLast[id] && time - lastTime[id] <= MAX_SAMPLE_GAP) {
+            checkGates(id, lastX[id], lastY[id], lastTime[id], x, y, time);
+        }
+        lastX[id] = x;
+        lastY[id] = y;
+        lastTime[id] = time;
+        hasLast[id] = true;
+    }
+
+    /**
+     * Tests the movement segment P->Q against each gate A->B
+     */
+    private void checkGates(int id, float px, float py, long pTime,
+            float qx, float qy, long qTime) {
+        final float dx = qx - px;
+        final float dy = qy - py;
+        for (int gate = 0; gate < gateCount; gate++) {
+            final float ex = gateX2[gate] - gateX1[gate];
+            final float ey = gateY2[gate] - gateY1[gate];
+            // positive when moving from the gate's left to its right
+            // (negative from right to left)
+            final float denominator = dx * ey - dy * ex;
+            if (denominator == 0) {
+                continue;
+            }
+            final float apx = gateX1[gate] - px;
+            final float apy = gateY1[gate] - py;
+            // fraction of the way along the movement segment
+            final float t = (apx * ey - apy * ex) / denominator;
+            // fraction of the way along the gate
+            final float u = (apx * dy - apy * dx) / denominator;
+            // t == 0 is excluded so that a sample landing exactly on the
+            // gate isn't counted twice
+            if (t > 0 && t <= 1 && u >= 0 && u <= 1) {
+                if (denominator < 0) {
+                    gateCrossedBackwards(id, gate);
+                    continue;
+                }
+                long crossingTime = pTime + (long) (t * (double) (qTime - pTime));
+                gateCrossed(id, gate, crossingTime);
+            }
+        }
+    }
+
+    /**
+     * Advances a body's lap when it crosses a gate. A completed lap is
+     * reported before the crossing, so listeners to both see a lap end
+     * before the crossing that starts the next.
+     */
+    private void gateCrossed(int id, int gate, long time) {
+        if (gate != 0) {
+            if (lapStarted[id] && gate == nextGate[id]) {
+                nextGate[id] = gate + 1 < gateCount ? gate + 1 : 0;
+            }
+            notifyGateCrossed(id, gate, time);
+            return;
+        }
+        if (lapStarted[id] && nextGate[id] == 0) {
+            final long lapTime = time - lapStartTime[id];
+            final int lap = ++lapCount[id];
+            lastLapTime[id] = lapTime;
+            if (bestLapTime[id] == 0 || lapTime < bestLapTime[id]) {
+                bestLapTime[id] = lapTime;
+            }
+            for (int i = 0; i < lapCompletedListeners.size(); i++) {
+                lapCompletedListeners.get(i).lapCompleted(id, lap, lapTime);
+            }
+        }
+        lapStartTime[id] = time;
+        lapStarted[id] = true;
+        nextGate[id] = gateCount > 1 ? 1 : 0;
+        notifyGateCrossed(id, gate, time);
+    }
+
+    /**
+     * Steps a body's lap back when it crosses the last gate it crossed the
+     * wrong way, so it has to cross that gate again
+     */
+    private void gateCrossedBackwards(int id, int gate) {
+        if (!lapStarted[id]) {
+            return;
+        }
+        final int previous = nextGate[id] == 0 ? gateCount - 1 : nextGate[id] - 1;
+        if (gate != previous) {
+            return;
+        }
+        if (gate == 0) {
+            // backed over the start/finish line; the lap starts again
+            // when the body crosses it
+            lapStarted[id] = false;
+        } else {
+            nextGate[id] = gate;
+        }
+    }
+
+    private void notifyGateCrossed(int id, int gate, long time) {
+        for (int i = 0; i < gateCrossingListeners.size(); i++) {
+            gateCrossingListeners.get(i).gateCrossed(id, gate, time);
+        }
+    }
+
+}
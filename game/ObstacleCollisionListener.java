@@ -0,0 +1,14 @@
+package game;
+
+/**
+ * A listener interface that allows listening for cars running into
+ * the track's obstacles
+ */
+public interface ObstacleCollisionListener {
+    /**
+     * @param id the car's body id
+     * @param obstacle the index of the obstacle within the track
+     * @param time the time of the update, from System.nanoTime()
+     */
+    void obstacleHit(int id, int obstacle, long time);
+}
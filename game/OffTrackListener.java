@@ -0,0 +1,14 @@
+package game;
+
+/**
+ * A listener interface that allows listening for cars leaving and
+ * returning to the track
+ */
+public interface OffTrackListener {
+    /**
+     * @param id the car's body id
+     * @param offTrack true if the car left the track, false if it returned
+     * @param time the time of the update, from System.nanoTime()
+     */
+    void offTrackChanged(int id, boolean offTrack, long time);
+}
@@ -0,0 +1,166 @@
+package game;
+
+import java.util.Random;
+
+import vector.Vector2D;
+
+/**
+ * This class chooses random spawn points for pickups that keep a minimum
+ * distance from cars, other pickups and anything else the caller blocks.
+ *
+ * The room is divided into an occupancy grid. The free cells are kept in
+ * a list, so a spawn point is drawn directly from free space: pick a
+ * random free cell, then a random point within it. Unlike drawing random
+ * points until one is far enough from everything, this takes the same
+ * time however crowded the room is, and reports failure when the room is
+ * completely blocked instead of looping forever.
+ *
+ * A cell is blocked if any part of it is within the blocked distance, so
+ * every point in a free cell satisfies every minimum-distance rule.
+ *
+ * Typical use, once per spawn:
+ *   spawner.clearBlocks();
+ *   spawner.block(x, y, distance); // for each car and pickup
+ *   spawner.spawn(location);
+ */
+public class PickupSpawner {
+
+    // the largest number of cells the grid may have
+    private static final int MAX_CELLS = 1 << 20;
+
+    private final double preferredCellSize;
+    private final Random rng;
+
+    private double roomXLowerBound;
+    private double roomYLowerBound;
+    private int columns;
+    private int rows;
+    private double cellWidth;
+    private double cellLength;
+
+    // the free cells, in no particular order
+    private int[] freeCells;
+    private int freeCount;
+    // the position of each cell in freeCells, or -1 if the cell is blocked
+    private int[] freeIndex;
+    // the cells blocked since the last call to clearBlocks()
+    private int[] blockedCells;
+    private int blockedCount;
+
+    /**
+     * @param cellSize the preferred size of a grid cell, in meters
+     * @param rng the random number generator spawn points are drawn from
+     */
+    public PickupSpawner(double cellSize, Random rng) {
+        this.preferredCellSize = cellSize;
+        this.rng = rng;
+    }
+
+    /**
+     * Rebuilds the grid to cover the given room, with every cell free
+     * @param xLowerBound the left-most X coordinate of the room
+     * @param yLowerBound the bottom-most Y coordinate of the room
+     * @param width the width of the room
+     * @param length the length of the room
+     */
+    public void setRoom(double xLowerBound, double yLowerBound, double width, double length) {
+        if (width <= 0 || length <= 0) {
+            throw new IllegalArgumentException("Room dimensions must be positive");
+        }
+        double cellSize = preferredCellSize;
+        while (Math.ceil(width / cellSize) * Math.ceil(length / cellSize) > MAX_CELLS) {
+            cellSize *= 2;
+        }
+        roomXLowerBound = xLowerBound;
+        roomYLowerBound = yLowerBound;
+        columns = (int) Math.ceil(width / cellSize);
+        rows = (int) Math.ceil(length / cellSize);
+        cellWidth = width / columns;
+        cellLength = length / rows;
+
+        final int cells = columns * rows;
+        freeCells = new int[cells];
+        freeIndex = new int[cells];
+        blockedCells = new int[cells];
+        for (int cell = 0; cell < cells; cell++) {
+            freeCells[cell] = cell;
+            freeIndex[cell] = cell;
+        }
+        freeCount = cells;
+        blockedCount = 0;
+    }
+
+    /**
+     * @return the number of cells spawn points can currently be drawn from
+     */
+    public int getFreeCellCount() {
+        return freeCount;
+    }
+
+    /**
+     * Blocks every cell with any part within the given distance of a point
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @param distance the minimum distance spawn points must keep from the point
+     */
+    public void block(double x, double y, double distance) {
+        final int minColumn = Math.max(0, (int) Math.floor((x - distance - roomXLowerBound) / cellWidth));
+        final int maxColumn = Math.min(columns - 1, (int) Math.floor((x + distance - roomXLowerBound) / cellWidth));
+        final int minRow = Math.max(0, (int) Math.floor((y - distance - roomYLowerBound) / cellLength));
+        final int maxRow = Math.min(rows - 1, (int) Math.floor((y + distance - roomYLowerBound) / cellLength));
+        final double distanceSquared = distance * distance;
+        for (int row = minRow; row <= maxRow; row++) {
+            final double cellY = roomYLowerBound + row * cellLength;
+            // distance from the point to the nearest edge of the row
+            final double dy = Math.max(0, Math.max(cellY - y, y - (cellY + cellLength)));
+            for (int column = minColumn; column <= maxColumn; column++) {
+                final double cellX = roomXLowerBound + column * cellWidth;
+                final double dx = Math.max(0, Math.max(cellX - x, x - (cellX + cellWidth)));
+                if (dx * dx + dy * dy < distanceSquared) {
+                    blockCell(row * columns + column);
+                }
+            }
+        }
+    }
+
+    private void blockCell(int cell) {
+        final int index = freeIndex[cell];
+        if (index < 0) {
+            return;
+        }
+        // swap the last free cell into this cell's place
+        final int last = freeCells[--freeCount];
+        freeCells[index] = last;
+        freeIndex[last] = index;
+        freeIndex[cell] = -1;
+        blockedCells[blockedCount++] = cell;
+    }
+
+    /**
+     * Frees every cell blocked since the last call
+     */
+    public void clearBlocks() {
+        for (int i = 0; i < blockedCount; i++) {
+            final int cell = blockedCells[i];
+            freeCells[freeCount] = cell;
+            freeIndex[cell] = freeCount++;
+        }
+        blockedCount = 0;
+    }
+
+    /**
+     * Draws a random spawn point from the free cells
+     * @param location receives the spawn point
+     * @return false (leaving location unchanged) if every cell is blocked
+     */
+    public boolean spawn(Vector2D location) {
+        if (freeCount == 0) {
+            return false;
+        }
+        final int cell = freeCells[rng.nextInt(freeCount)];
+        location.x = roomXLowerBound + (cell % columns + rng.nextDouble()) * cellWidth;
+        location.y = roomYLowerBound + (cell / columns + rng.nextDouble()) * cellLength;
+        return true;
+    }
+
+}
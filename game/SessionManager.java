@@ -0,0 +1,271 @@
+package game;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import motive.FrameUpdateListener;
+import motive.RigidBodyUpdateListener;
+
+/**
+ * This class runs many independent GameSessions over one decoded Motive
+ * stream. It is registered with a CommandStreamManager like any other
+ * listener: rigid body updates are collected into a frame, and at the end
+ * of each frame the frame is published to every session on a ForkJoinPool.
+ *
+ * Frames act as a barrier: every session finishes frame N before frame N+1
+ * is published. Publishing waits (on the network thread) for the previous
+ * frame, so a slow session delays the stream rather than letting sessions
+ * drift apart. Bodies of the next frame are collected into a second buffer
+ * while the sessions work on the current one, so parsing and the sessions
+ * overlap.
+ *
+ * The sessions are split into a tree of tasks, which is built when the
+ * sessions change and reinitialized for each frame, so publishing a frame
+ * allocates no tasks. The only allocation left is inside ForkJoinTask's
+ * join: when the sessions are still working on the previous frame, the
+ * waiting thread allocates a small wait node (about 24 bytes per wait).
+ */
+public class SessionManager implements RigidBodyUpdateListener, FrameUpdateListener {
+
+    // the most bodies a frame holds; further bodies are ignored
+    public static final int MAX_BODIES = LapTimer.MAX_BODIES;
+
+    // tasks created per worker thread, so uneven sessions still balance
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * The bodies of one frame, in the order Motive sent them
+     */
+    static class Frame {
+        // the frame's time, in nanoseconds
+        long time;
+        int bodyCount;
+        final int[] ids = new int[MAX_BODIES];
+        final float[] x = new float[MAX_BODIES];
+        final float[] y = new float[MAX_BODIES];
+        final float[] z = new float[MAX_BODIES];
+        final float[] qx = new float[MAX_BODIES];
+        final float[] qy = new float[MAX_BODIES];
+        final float[] qz = new float[MAX_BODIES];
+        final float[] qw = new float[MAX_BODIES];
+    }
+
+    private final ForkJoinPool pool;
+
+    // copied on write, so a frame's sessions never change under it
+    private volatile GameSession[] sessions = new GameSession[0];
+
+    // the frame being collected (network thread only)
+    private Frame collecting = new Frame();
+    // the frame the sessions are working on
+    private Frame published = new Frame();
+    // the work on the published frame, or null before the first frame
+    private SessionTask pending;
+    // the tasks for the sessions they were built for, reused every frame
+    private SessionTask tasks;
+    private GameSession[] taskSessions;
+
+    private volatile long framesPublished;
+    private volatile long barrierWaits;
+    private volatile long barrierWaitTime;
+
+    /**
+     * Creates a manager running sessions on the common ForkJoinPool
+     */
+    public SessionManager() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool sessions run on
+     */
+    public SessionManager(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Adds a session, which receives frames from the next frame published
+     */
+    public synchronized void addSession(GameSession session) {
+        GameSession[] updated = new GameSession[sessions.length + 1];
+        System.arraycopy(sessions, 0, updated, 0, sessions.length);
+        updated[sessions.length] = session;
+        sessions = updated;
+    }
+
+    public int getSessionCount() {
+        return sessions.length;
+    }
+
+    /**
+     * @return the number of frames published to the sessions
+     */
+    public long getFramesPublished() {
+        return framesPublished;
+    }
+
+    /**
+     * @return the number of frames that had to wait for the sessions to
+     * finish the previous frame
+     */
+    public long getBarrierWaits() {
+        return barrierWaits;
+    }
+
+    /**
+     * @return the total time spent waiting for the sessions to finish a
+     * previous frame, in nanoseconds
+     */
+    public long getBarrierWaitTime() {
+        return barrierWaitTime;
+    }
+
+    /**
+     * Method called by motive for each rigid body; adds the body to the
+     * frame being collected
+     */
+    @Override
+    public void update(int id, float x, float y, float z) {
+        update(id, x, y, z, 0, 0, 0, 1);
+    }
+
+    @Override
+    public void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw) {
+        update(id, x, y, z, qx, qy, qz, qw, System.nanoTime());
+    }
+
+    @Override
+    public void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw, long time) {
+        final Frame frame = collecting;
+        final int body = frame.bodyCount;
+        if (body == MAX_BODIES) {
+            return;
+        }
+        frame.ids[body] = id;
+        frame.x[body] = x;
+        frame.y[body] = y;
+        frame.z[body] = z;
+        frame.qx[body] = qx;
+        frame.qy[body] = qy;
+        frame.qz[body] = qz;
+        frame.qw[body] = qw;
+        frame.bodyCount = body + 1;
+    }
+
+    @Override
+    public void update() {
+        update(System.nanoTime());
+    }
+
+    /**
+     * Method called by motive at the end of each frame; waits for the
+     * sessions to finish the previous frame, then publishes this one
+     * @param time the frame's time, passed on to the sessions
+     */
+    @Override
+    public void update(long time) {
+        awaitSessions();
+        final Frame frame = collecting;
+        frame.time = time;
+        collecting = published;
+        collecting.bodyCount = 0;
+        published = frame;
+
+        final GameSession[] current = sessions;
+        if (current.length == 0) {
+            return;
+        }
+        if (current != taskSessions) {
+            final int threshold = Math.max(1,
+                    current.length / (pool.getParallelism() * TASKS_PER_THREAD));
+            tasks = new SessionTask(current, 0, current.length, threshold);
+            taskSessions = current;
+        }
+        tasks.reset(frame);
+        pending = tasks;
+        pool.execute(tasks);
+        framesPublished++;
+    }
+
+    /**
+     * Waits until every session has finished the last published frame
+     */
+    public void awaitSessions() {
+        final SessionTask task = pending;
+        if (task == null) {
+            return;
+        }
+        if (!task.isDone()) {
+            final long start = System.nanoTime();
+            task.join();
+            barrierWaitTime += System.nanoTime() - start;
+            barrierWaits++;
+        }
+        pending = null;
+    }
+
+    /**
+     * Delivers a frame to a range of sessions. Ranges of more than
+     * threshold sessions are split in half between two child tasks, which
+     * are created once with their parent.
+     */
+    private static class SessionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final GameSession[] sessions;
+        private final int start;
+        private final int end;
+        private final SessionTask left;
+        private final SessionTask right;
+        private Frame frame;
+
+        SessionTask(GameSession[] sessions, int start, int end, int threshold) {
+            this.sessions = sessions;
+            this.start = start;
+            this.end = end;
+            if (end - start > threshold) {
+                final int middle = (start + end) >>> 1;
+                left = new SessionTask(sessions, start, middle, threshold);
+                right = new SessionTask(sessions, middle, end, threshold);
+            } else {
+                left = null;
+                right = null;
+            }
+        }
+
+        /**
+         * Prepares the task and its children to deliver another frame. Only
+         * called once the previous frame's work has completed.
+         */
+        void reset(Frame frame) {
+            this.frame = frame;
+            reinitialize();
+            if (left != null) {
+                left.reset(frame);
+                right.reset(frame);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            if (left != null) {
+                invokeAll(left, right);
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                try {
+                    sessions[i].deliver(frame);
+                } catch (RuntimeException e) {
+                    // one failing session shouldn't stop the others
+                    System.out.println("Error in session " + sessions[i].getName());
+                    e.printStackTrace();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package game;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class calls a tick function at a fixed rate on its own thread,
+ * independent of how often frames arrive from Motive.
+ *
+ * Ticks are scheduled against fixed deadlines (start + n * period), so
+ * lateness doesn't accumulate. If a tick starts a whole period or more
+ * late, the missed ticks are skipped rather than run back to back, and
+ * counted as overruns; bursts of late ticks would only repeat the same
+ * game logic on the same poses.
+ *
+ * The scheduler records how late each tick started after its (possibly
+ * advanced) deadline (jitter), how long each tick took and how many ticks
+ * were skipped. Whole periods of lateness are counted as overruns, so
+ * jitter is always less than one period.
+ */
+public class TickScheduler implements Runnable {
+
+    // the range of supported tick rates, in ticks per second
+    public static final int MIN_TICK_RATE = 60;
+    public static final int MAX_TICK_RATE = 500;
+
+    private final Runnable tick;
+    private final int tickRate;
+    private final long period;
+
+    private volatile boolean running;
+
+    // statistics, written only by the scheduler thread
+    private volatile long tickCount;
+    private volatile long overrunCount;
+    private volatile long totalJitter;
+    private volatile long maxJitter;
+    private volatile long maxTickDuration;
+
+    /**
+     * @param tickRate the number of ticks per second, between
+     * MIN_TICK_RATE and MAX_TICK_RATE
+     * @param tick the function called once per tick
+     */
+    public TickScheduler(int tickRate, Runnable tick) {
+        if (tickRate < MIN_TICK_RATE || tickRate > MAX_TICK_RATE) {
+            throw new IllegalArgumentException("Tick rate must be between "
+                    + MIN_TICK_RATE + " and " + MAX_TICK_RATE + " Hz");
+        }
+        this.tick = tick;
+        this.tickRate = tickRate;
+        period = 1_000_000_000L / tickRate;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    /**
+     * Causes run() to return after its current tick
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * @return the number of ticks run
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * @return the number of ticks skipped because the scheduler fell behind
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * @return the mean time ticks started after their deadline, in nanoseconds
+     */
+    public long getMeanJitter() {
+        long ticks = tickCount;
+        return ticks == 0 ? 0 : totalJitter / ticks;
+    }
+
+    /**
+     * @return the longest time a tick started after its deadline, in nanoseconds
+     */
+    public long getMaxJitter() {
+        return maxJitter;
+    }
+
+    /**
+     * @return the longest time a single tick took to run, in nanoseconds
+     */
+    public long getMaxTickDuration() {
+        return maxTickDuration;
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        long deadline = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            long wait = deadline - now;
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                // parkNanos may return early (spuriously or when interrupted)
+                continue;
+            }
+
+            long jitter = -wait;
+            if (jitter >= period) {
+                // skip the ticks we missed instead of bursting through them
+                final long missed = jitter / period;
+                overrunCount += missed;
+                deadline += missed * period;
+                jitter -= missed * period;
+            }
+            tick.run();
+            final long duration = System.nanoTime() - now;
+
+            tickCount++;
+            totalJitter += jitter;
+            if (jitter > maxJitter) {
+                maxJitter = jitter;
+            }
+            if (duration > maxTickDuration) {
+                maxTickDuration = duration;
+            }
+            deadline += period;
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A race track within the room: an outer boundary, an optional inner
+ * boundary (the infield) and any number of obstacles, each a polygon.
+ * A point is on the track if it is inside the outer boundary, outside the
+ * inner boundary and not in an obstacle.
+ *
+ * Testing a point against every polygon costs O(vertices), so the track's
+ * bounding box is rasterized into a grid when the track is created. Each
+ * cell no polygon edge passes through lies entirely in one region, which
+ * is stored in the grid; only cells crossed by an edge are marked as edge
+ * cells. Most points are classified with a single array read, and exact
+ * polygon tests are only needed for points in edge cells.
+ *
+ * A track is immutable, so it can be shared by any number of threads.
+ */
+public class Track {
+
+    // region returned for points off the track
+    public static final int OFF_TRACK = -2;
+    // region returned for points on the track (obstacles are numbered from 0)
+    public static final int ON_TRACK = -1;
+
+    // grid value of a cell crossed by a polygon edge
+    private static final int EDGE = -3;
+
+    // the default size of a grid cell, in meters
+    public static final double DEFAULT_CELL_SIZE = 0.02;
+    // the largest number of cells the grid may have
+    private static final int MAX_CELLS = 1 << 22;
+    // the most obstacles a track may have (regions are stored as bytes)
+    public static final int MAX_OBSTACLES = 128;
+
+    // polygon vertices; polygon 0 is the outer boundary, followed by the
+    // inner boundary (if any), then the obstacles
+    private final float[][] polygonXs;
+    private final float[][] polygonYs;
+    private final boolean hasInner;
+    private final int firstObstacle;
+
+    private final double gridXLowerBound;
+    private final double gridYLowerBound;
+    private final int columns;
+    private final int rows;
+    private final double cellWidth;
+    private final double cellLength;
+    private final byte[] grid;
+
+    /**
+     * @param outer the outer boundary, as x0, y0, x1, y1, ...
+     * @param inner the inner boundary, in the same format, or null
+     * @param obstacles the obstacles, in the same format (at most MAX_OBSTACLES)
+     * @param cellSize the preferred size of a grid cell, in meters
+     */
+    public Track(float[] outer, float[] inner, List<float[]> obstacles, double cellSize) {
+        if (obstacles.size() > MAX_OBSTACLES) {
+            throw new IllegalArgumentException("Too many obstacles: " + obstacles.size());
+        }
+        hasInner = inner != null;
+        firstObstacle = hasInner ? 2 : 1;
+        final int polygons = firstObstacle + obstacles.size();
+        polygonXs = new float[polygons][];
+        polygonYs = new float[polygons][];
+        setPolygon(0, outer);
+        if (hasInner) {
+            setPolygon(1, inner);
+        }
+        for (int i = 0; i < obstacles.size(); i++) {
+            setPolygon(firstObstacle + i, obstacles.get(i));
+        }
+
+        // the grid covers the outer boundary; everything beyond is off the track
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int v = 0; v < polygonXs[0].length; v++) {
+            minX = Math.min(minX, polygonXs[0][v]);
+            maxX = Math.max(maxX, polygonXs[0][v]);
+            minY = Math.min(minY, polygonYs[0][v]);
+            maxY = Math.max(maxY, polygonYs[0][v]);
+        }
+        final double width = Math.max(maxX - minX, 1e-6);
+        final double length = Math.max(maxY - minY, 1e-6);
+        while (Math.ceil(width / cellSize) * Math.ceil(length / cellSize) > MAX_CELLS) {
+            cellSize *= 2;
+        }
+        gridXLowerBound = minX;
+        gridYLowerBound = minY;
+        columns = (int) Math.ceil(width / cellSize);
+        rows = (int) Math.ceil(length / cellSize);
+        cellWidth = width / columns;
+        cellLength = length / rows;
+        grid = new byte[columns * rows];
+        rasterize();
+    }
+
+    private void setPolygon(int polygon, float[] coordinates) {
+        if (coordinates.length < 6 || coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+        }
+        final int vertices = coordinates.length / 2;
+        polygonXs[polygon] = new float[vertices];
+        polygonYs[polygon] = new float[vertices];
+        for (int v = 0; v < vertices; v++) {
+            polygonXs[polygon][v] = coordinates[2 * v];
+            polygonYs[polygon][v] = coordinates[2 * v + 1];
+        }
+    }
+
+    /**
+     * Reads a track from properties. Polygons are listed as space separated
+     * x,y pairs, e.g. outer=-1,-1 1,-1 1,1 -1,1
+     *   outer         the outer boundary (required)
+     *   inner         the inner boundary
+     *   obstacles     the number of obstacles
+     *   obstacle.N    each obstacle, numbered from 0
+     *   cellSize      the size of a grid cell, in meters
+     * @param properties the properties to read
+     * @return the track
+     * @throws IllegalArgumentException if a property is missing or malformed
+     */
+    public static Track fromProperties(Properties properties) {
+        String outer = properties.getProperty("outer");
+        if (outer == null) {
+            throw new IllegalArgumentException("No outer boundary");
+        }
+        String inner = properties.getProperty("inner");
+        int obstacleCount = Integer.parseInt(properties.getProperty("obstacles", "0"));
+        List<float[]> obstacles = new ArrayList<>();
+        for (int i = 0; i < obstacleCount; i++) {
+            String obstacle = properties.getProperty("obstacle." + i);
+            if (obstacle == null) {
+                throw new IllegalArgumentException("Missing obstacle." + i);
+            }
+            obstacles.add(parsePolygon(obstacle));
+        }
+        double cellSize = Double.parseDouble(properties.getProperty("cellSize",
+                Double.toString(DEFAULT_CELL_SIZE)));
+        return new Track(parsePolygon(outer), inner == null ? null : parsePolygon(inner),
+                obstacles, cellSize);
+    }
+
+    private static float[] parsePolygon(String vertices) {
+        String[] points = vertices.trim().split("\\s+");
+        float[] coordinates = new float[points.length * 2];
+        for (int v = 0; v < points.length; v++) {
+            String[] xy = points[v].split(",");
+            if (xy.length != 2) {
+                throw new IllegalArgumentException("Expected x,y but found " + points[v]);
+            }
+            coordinates[2 * v] = Float.parseFloat(xy[0]);
+            coordinates[2 * v + 1] = Float.parseFloat(xy[1]);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Fills the grid: cells crossed by an edge are marked as edge cells,
+     * and every other cell takes the region of its center
+     */
+    private void rasterize() {
+        for (int polygon = 0; polygon < polygonXs.length; polygon++) {
+            final float[] xs = polygonXs[polygon];
+            final float[] ys = polygonYs[polygon];
+            for (int v = 0, previous = xs.length - 1; v < xs.length; previous = v++) {
+                markEdge(xs[previous], ys[previous], xs[v], ys[v]);
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            final double y = gridYLowerBound + (row + 0.5) * cellLength;
+            for (int column = 0; column < columns; column++) {
+                final int cell = row * columns + column;
+                if (grid[cell] != EDGE) {
+                    final double x = gridXLowerBound + (column + 0.5) * cellWidth;
+                    grid[cell] = (byte) classifyExactly(x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks every cell a segment passes through as an edge cell
+     */
+    private void markEdge(double x1, double y1, double x2, double y2) {
+        final int minColumn = Math.max(0, (int) Math.floor((Math.min(x1, x2) - gridXLowerBound) / cellWidth));
+        final int maxColumn = Math.min(columns - 1, (int) Math.floor((Math.max(x1, x2) - gridXLowerBound) / cellWidth));
+        final int minRow = Math.max(0, (int) Math.floor((Math.min(y1, y2) - gridYLowerBound) / cellLength));
+        final int maxRow = Math.min(rows - 1, (int) Math.floor((Math.max(y1, y2) - gridYLowerBound) / cellLength));
+        final double dx = x2 - x1;
+        final double dy = y2 - y1;
+        for (int row = minRow; row <= maxRow; row++) {
+            final double cellY = gridYLowerBound + row * cellLength;
+            for (int column = minColumn; column <= maxColumn; column++) {
+                final double cellX = gridXLowerBound + column * cellWidth;
+                // the segment's bounding box overlaps the cell, so it crosses
+                // the cell unless all four corners are on one side of its line
+                final double c1 = dx * (cellY - y1) - dy * (cellX - x1);
+                final double c2 = dx * (cellY - y1) - dy * (cellX + cellWidth - x1);
+                final double c3 = dx * (cellY + cellLength - y1) - dy * (cellX - x1);
+                final double c4 = dx * (cellY + cellLength - y1) - dy * (cellX + cellWidth - x1);
+                final boolean allAbove = c1 > 0 && c2 > 0 && c3 > 0 && c4 > 0;
+                final boolean allBelow = c1 < 0 && c2 < 0 && c3 < 0 && c4 < 0;
+                if (!allAbove && !allBelow) {
+                    grid[row * columns + column] = EDGE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the region of a point, reading the grid and only testing the
+     * polygons if the point is in an edge cell
+     * @param x the point's X coordinate
+     * @param y the point's Y coordinate
+     * @return OFF_TRACK, ON_TRACK, or the index of the obstacle the point is in
+     */
+    public int classify(double x, double y) {
+        final double gridX = (x - gridXLowerBound) / cellWidth;
+        final double gridY = (y - gridYLowerBound) / cellLength;
+        if (!(gridX >= 0 && gridY >= 0 && gridX < columns && gridY < rows)) {
+            return OFF_TRACK;
+        }
+        final int region = grid[(int) gridY * columns + (int) gridX];
+        return region == EDGE ? classifyExactly(x, y) : region;
+    }
+
+    /**
+     * Finds the region of a point by testing it against every polygon,
+     * without the grid
+     * @param x the point's X coordinate
+     * @param y the point's Y coordinate
+     * @return OFF_TRACK, ON_TRACK, or the index of the obstacle the point is in
+     */
+    public int classifyExactly(double x, double y) {
+        if (!contains(0, x, y) || (hasInner && contains(1, x, y))) {
+            return OFF_TRACK;
+        }
+        for (int polygon = firstObstacle; polygon < polygonXs.length; polygon++) {
+            if (contains(polygon, x, y)) {
+                return polygon - firstObstacle;
+            }
+        }
+        return ON_TRACK;
+    }
+
+    /**
+     * Tests whether a point is inside a polygon, by counting the polygon
+     * edges crossed by a ray from the point towards +X
+     */
+    private boolean contains(int polygon, double x, double y) {
+        final float[] xs = polygonXs[polygon];
+        final float[] ys = polygonYs[polygon];
+        boolean inside = false;
+        for (int v = 0, previous = xs.length - 1; v < xs.length; previous = v++) {
+            final double y1 = ys[previous];
+            final double y2 = ys[v];
+            if ((y1 > y) != (y2 > y)) {
+                final double crossingX = xs[previous] + (y - y1) * (xs[v] - xs[previous]) / (y2 - y1);
+                if (x < crossingX) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @return the number of polygons: the outer boundary, the inner
+     * boundary (if any) and the obstacles, in that order
+     */
+    public int getPolygonCount() {
+        return polygonXs.length;
+    }
+
+    /**
+     * @return true if the track has an inner boundary (polygon 1)
+     */
+    public boolean hasInnerBoundary() {
+        return hasInner;
+    }
+
+    /**
+     * @return the number of obstacles
+     */
+    public int getObstacleCount() {
+        return polygonXs.length - firstObstacle;
+    }
+
+    /**
+     * @param obstacle an obstacle index
+     * @return the index of the obstacle's polygon
+     */
+    public int getObstaclePolygon(int obstacle) {
+        return firstObstacle + obstacle;
+    }
+
+    public int getVertexCount(int polygon) {
+        return polygonXs[polygon].length;
+    }
+
+    public float getVertexX(int polygon, int vertex) {
+        return polygonXs[polygon][vertex];
+    }
+
+    public float getVertexY(int polygon, int vertex) {
+        return polygonYs[polygon][vertex];
+    }
+
+    /**
+     * @return the fraction of grid cells that need exact polygon tests
+     */
+    public double getEdgeCellFraction() {
+        int edges = 0;
+        for (byte cell : grid) {
+            if (cell == EDGE) {
+                edges++;
+            }
+        }
+        return edges / (double) grid.length;
+    }
+
+}
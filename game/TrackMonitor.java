@@ -0,0 +1,148 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import motive.RigidBodyUpdateListener;
+
+/**
+ * This class watches every car against the track on every rigid body
+ * update, reporting cars leaving or returning to the track and running
+ * into obstacles.
+ *
+ * Like the lap timer, it should be registered directly with a
+ * CommandStreamManager so that it sees every frame. Each update costs a
+ * single Track lookup, which is usually one array read.
+ */
+public class TrackMonitor implements RigidBodyUpdateListener {
+
+    // the largest body id (exclusive) that is monitored
+    public static final int MAX_BODIES = LapTimer.MAX_BODIES;
+
+    // region of a body that hasn't been seen since the track was set
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private volatile Track track;
+
+    // the region each body was last in, indexed by body id
+    private final int[] regions = new int[MAX_BODIES];
+
+    private volatile long offTrackCount;
+    private volatile long obstacleHitCount;
+
+    private final List<OffTrackListener> offTrackListeners = new ArrayList<>();
+    private final List<ObstacleCollisionListener> obstacleCollisionListeners = new ArrayList<>();
+
+    public TrackMonitor() {
+        Arrays.fill(regions, UNKNOWN);
+    }
+
+    /**
+     * Sets the track cars are monitored against, or null to stop
+     * monitoring. Every body starts over, as if it hadn't been seen.
+     * @param track the track
+     */
+    public void setTrack(Track track) {
+        this.track = track;
+        Arrays.fill(regions, UNKNOWN);
+    }
+
+    /**
+     * @return the track cars are monitored against, or null if none
+     */
+    public Track getTrack() {
+        return track;
+    }
+
+    public void addOffTrackListener(OffTrackListener listener) {
+        offTrackListeners.add(listener);
+    }
+
+    public void addObstacleCollisionListener(ObstacleCollisionListener listener) {
+        obstacleCollisionListeners.add(listener);
+    }
+
+    /**
+     * @return the number of times a car has left the track
+     */
+    public long getOffTrackCount() {
+        return offTrackCount;
+    }
+
+    /**
+     * @return the number of times a car has run into an obstacle
+     */
+    public long getObstacleHitCount() {
+        return obstacleHitCount;
+    }
+
+    /**
+     * @param id a body id
+     * @return true if the body was off the track at its last update
+     */
+    public boolean isOffTrack(int id) {
+        return regions[id] == Track.OFF_TRACK;
+    }
+
+    /**
+     * Method called with a rigid body's location when no frame time is
+     * known; changes are timestamped with the time it was received
+     */
+    @Override
+    public void update(int id, float x, float y, float z) {
+        update(id, x, y, System.nanoTime());
+    }
+
+    /**
+     * Method called by motive with a rigid body's pose; changes are
+     * timestamped with the time of the frame it was tracked in
+     */
+    @Override
+    public void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw, long time) {
+        update(id, x, y, time);
+    }
+
+    /**
+     * Classifies a body's position, notifying listeners if it left or
+     * rejoined the track, or hit an obstacle
+     * @param id the body's id
+     * @param x the body's X coordinate
+     * @param y the body's Y coordinate
+     * @param time the time of the position, in nanoseconds
+     */
+    public void update(int id, float x, float y, long time) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        final Track current = track;
+        if (current == null) {
+            return;
+        }
+        final int region = current.classify(x, y);
+        final int previous = regions[id];
+        if (region == previous) {
+            return;
+        }
+        regions[id] = region;
+
+        // a car first seen off the track counts as leaving it
+        final boolean offTrack = region == Track.OFF_TRACK;
+        if (offTrack != (previous == Track.OFF_TRACK) && (offTrack || previous != UNKNOWN)) {
+            if (offTrack) {
+                offTrackCount++;
+            }
+            for (int i = 0; i < offTrackListeners.size(); i++) {
+                offTrackListeners.get(i).offTrackChanged(id, offTrack, time);
+            }
+        }
+        if (region >= 0) {
+            obstacleHitCount++;
+            for (int i = 0; i < obstacleCollisionListeners.size(); i++) {
+                obstacleCollisionListeners.get(i).obstacleHit(id, region, time);
+            }
+        }
+    }
+
+}
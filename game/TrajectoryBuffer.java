@@ -0,0 +1,206 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import motive.RigidBodyUpdateListener;
+
+/**
+ * This class records the recent path of each rigid body in fixed-size
+ * ring buffers of primitive values, so memory use doesn't grow with the
+ * length of the session.
+ *
+ * The buffer should be registered directly with a CommandStreamManager so
+ * that it records every frame at Motive's full rate. Each body's buffer is
+ * allocated the first time the body is seen and is reused from then on.
+ *
+ * Samples are written by a single thread (the network thread) and may be
+ * read by any number of others. Readers never look further back than
+ * capacity - READ_MARGIN samples, so a sample can only be overwritten
+ * while being read if the reader stalls for READ_MARGIN frames.
+ */
+public class TrajectoryBuffer implements RigidBodyUpdateListener {
+
+    // the largest body id (exclusive) the buffer will record
+    public static final int MAX_BODIES = LapTimer.MAX_BODIES;
+
+    // the number of most recent slots readers stay clear of
+    private static final int READ_MARGIN = 64;
+
+    private final int capacity;
+
+    // samples for each body, indexed by body id, then by slot
+    private final float[][] xs;
+    private final float[][] ys;
+    private final long[][] times;
+
+    // the number of samples ever written for each body
+    private final AtomicLongArray sampleCounts;
+
+    /**
+     * @param capacity the number of samples kept per body; for N seconds of
+     * history this should be N times Motive's frame rate
+     */
+    public TrajectoryBuffer(int capacity) {
+        if (capacity <= READ_MARGIN) {
+            throw new IllegalArgumentException("Capacity must be greater than " + READ_MARGIN);
+        }
+        this.capacity = capacity;
+        xs = new float[MAX_BODIES][];
+        ys = new float[MAX_BODIES][];
+        times = new long[MAX_BODIES][];
+        sampleCounts = new AtomicLongArray(MAX_BODIES);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Method called with a rigid body's location when no frame time is
+     * known. The sample is timestamped with the time it was received.
+     */
+    @Override
+    public void update(int id, float x, float y, float z) {
+        record(id, x, y, System.nanoTime());
+    }
+
+    /**
+     * Method called by motive with a rigid body's pose; the sample is
+     * timestamped with the time of the frame it was tracked in
+     */
+    @Override
+    public void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw, long time) {
+        record(id, x, y, time);
+    }
+
+    /**
+     * Records a sample for a body, overwriting its oldest sample if
+     * its buffer is full
+     * @param id the body's id
+     * @param x the body's X coordinate
+     * @param y the body's Y coordinate
+     * @param time the time of the sample, in nanoseconds
+     */
+    public void record(int id, float x, float y, long time) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return;
+        }
+        if (xs[id] == null) {
+            xs[id] = new float[capacity];
+            ys[id] = new float[capacity];
+            times[id] = new long[capacity];
+        }
+        final long count = sampleCounts.get(id);
+        final int slot = (int) (count % capacity);
+        xs[id][slot] = x;
+        ys[id][slot] = y;
+        times[id][slot] = time;
+        // publishes the sample (and the arrays, the first time) to readers
+        sampleCounts.set(id, count + 1);
+    }
+
+    /**
+     * @param id a body id
+     * @return the number of samples that can be read for the body
+     */
+    public int getSampleCount(int id) {
+        return (int) Math.min(sampleCounts.get(id), capacity - READ_MARGIN);
+    }
+
+    /**
+     * @param id a body id
+     * @param back how many samples back to look, where 0 is the newest
+     * sample; must be less than getSampleCount(id)
+     * @return the X coordinate of the sample
+     */
+    public float getX(int id, int back) {
+        return xs[id][slotOf(id, back)];
+    }
+
+    /**
+     * @param id a body id
+     * @param back how many samples back to look, where 0 is the newest sample
+     * @return the Y coordinate of the sample
+     */
+    public float getY(int id, int back) {
+        return ys[id][slotOf(id, back)];
+    }
+
+    /**
+     * @param id a body id
+     * @param back how many samples back to look, where 0 is the newest sample
+     * @return the time of the sample, in nanoseconds
+     */
+    public long getTime(int id, int back) {
+        return times[id][slotOf(id, back)];
+    }
+
+    private int slotOf(int id, int back) {
+        return (int) ((sampleCounts.get(id) - 1 - back) % capacity);
+    }
+
+    /**
+     * Copies a decimated copy of a body's path into the given arrays,
+     * newest point first. Walking back from the newest sample taken at or
+     * before endTime, a sample is kept only if it is at least minDistance
+     * from the last kept sample; the oldest sample in the window is always
+     * kept so the path reaches the end of the window.
+     * @param id a body id
+     * @param endTime the time of the newest sample to consider, in nanoseconds
+     * @param window how far back from endTime to look, in nanoseconds
+     * @param minDistance the minimum distance between kept samples
+     * @param outX receives the X coordinates of the kept samples
+     * @param outY receives the Y coordinates of the kept samples
+     * @return the number of points copied, at most the length of the arrays
+     */
+    public int decimate(int id, long endTime, long window, float minDistance,
+            float[] outX, float[] outY) {
+        if (id < 0 || id >= MAX_BODIES) {
+            return 0;
+        }
+        final long count = sampleCounts.get(id);
+        if (count == 0) {
+            return 0;
+        }
+        final float[] x = xs[id];
+        final float[] y = ys[id];
+        final long[] t = times[id];
+        final long oldest = Math.max(0, count - (capacity - READ_MARGIN));
+        final long startTime = endTime - window;
+        final float minDistanceSquared = minDistance * minDistance;
+        final int limit = Math.min(outX.length, outY.length);
+
+        int points = 0;
+        float lastX = 0;
+        float lastY = 0;
+        int skippedSlot = -1;
+        for (long index = count - 1; index >= oldest && points < limit; index--) {
+            final int slot = (int) (index % capacity);
+            final long time = t[slot];
+            if (time > endTime) {
+                continue;
+            }
+            if (time < startTime) {
+                break;
+            }
+            final float dx = x[slot] - lastX;
+            final float dy = y[slot] - lastY;
+            if (points == 0 || dx * dx + dy * dy >= minDistanceSquared) {
+                lastX = outX[points] = x[slot];
+                lastY = outY[points] = y[slot];
+                points++;
+                skippedSlot = -1;
+            } else {
+                skippedSlot = slot;
+            }
+        }
+        if (skippedSlot >= 0 && points < limit) {
+            outX[points] = x[skippedSlot];
+            outY[points] = y[skippedSlot];
+            points++;
+        }
+        return points;
+    }
+
+}
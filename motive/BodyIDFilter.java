@@ -0,0 +1,95 @@
+package motive;
+
+import java.util.Arrays;
+
+/**
+ * The rigid body ids a subscription is interested in: every id, a range
+ * of ids, or a set of specific ids. Ids are matched after the endpoint's
+ * body id offset has been added, i.e. as listeners see them.
+ */
+public class BodyIDFilter {
+
+    private static final BodyIDFilter ALL = new BodyIDFilter(Integer.MIN_VALUE,
+            Integer.MAX_VALUE, null);
+
+    // the lowest and highest ids accepted
+    private final int first;
+    private final int last;
+    // the accepted ids, sorted, or null to accept every id from first to last
+    private final int[] ids;
+
+    private BodyIDFilter(int first, int last, int[] ids) {
+        this.first = first;
+        this.last = last;
+        this.ids = ids;
+    }
+
+    /**
+     * @return a filter accepting every body
+     */
+    public static BodyIDFilter all() {
+        return ALL;
+    }
+
+    /**
+     * @param first the lowest id accepted
+     * @param last the highest id accepted
+     * @return a filter accepting every id from first to last, inclusive
+     */
+    public static BodyIDFilter range(int first, int last) {
+        if (first > last) {
+            throw new IllegalArgumentException("Empty body id range: " + first + " to " + last);
+        }
+        return new BodyIDFilter(first, last, null);
+    }
+
+    /**
+     * @param ids the ids accepted
+     * @return a filter accepting only the given ids
+     */
+    public static BodyIDFilter of(int... ids) {
+        if (ids.length == 0) {
+            throw new IllegalArgumentException("No body ids given");
+        }
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        return new BodyIDFilter(sorted[0], sorted[sorted.length - 1], sorted);
+    }
+
+    /**
+     * @return the lowest id accepted
+     */
+    public int getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the highest id accepted
+     */
+    public int getLast() {
+        return last;
+    }
+
+    /**
+     * @param id a body id
+     * @return true if the filter accepts the id
+     */
+    public boolean accepts(int id) {
+        if (id < first || id > last) {
+            return false;
+        }
+        return ids == null || Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    @Override
+    public String toString() {
+        if (this == ALL) {
+            return "all bodies";
+        }
+        if (ids == null) {
+            return "bodies " + first + " to " + last;
+        }
+        return "bodies " + Arrays.toString(ids);
+    }
+
+}
@@ -1,23 +1,28 @@
 package motive;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collections;
 
 /**
- * This class is responsible for talking to Motive's UDP server,
- * which runs on localhost (127.0.0.1) on port 1510.
+ * This class is responsible for talking to a Motive UDP server, which by
+ * default runs on localhost (127.0.0.1) on port 1510. The server's host,
+ * ports and version are described by a MotiveEndpoint.
  * 
  * As frames are received by this class, any listeners listening for
  * frame updates are updated.
- * 
- * The class communicates with Motive via a socket opened on localhost::1512.
- * This port can be changed by updating the value of APPLICATION_PORT.
+ *
+ * Listeners are passed the time of each frame on the System.nanoTime()
+ * clock. For Motive 3 and higher this is the cameras' mid-exposure,
+ * mapped from Motive's clock using the best transit seen recently, so
+ * samples are spaced by when they were tracked rather than by when they
+ * were parsed. Older versions send no timestamps, so their frames are
+ * timed when they are received.
+ *
+ * Packets are received by a MotiveReceiver, which can serve several
+ * managers (one per Motive server, or arena) from a single thread.
+ * Running a manager on its own creates a receiver for just that manager.
  * 
  * Code in the handleFrameData method was adapted from the Motive SDK
  * PythonClient sample.
@@ -26,46 +31,139 @@ import java.util.List;
  */
 public class CommandStreamManager implements Runnable {
     
-    // Byte order used by Motive
-    private static final ByteOrder MOTIVE_PACKET_BYTE_ORDER = 
-            ByteOrder.LITTLE_ENDIAN;
-
-    // Motive's Command port (this will need to be changed 
-    // if Motive's settings are changed)
-    private static final int MOTIVE_COMMAND_PORT = 1510;
-    // The port this application will communicate with Motive from
-    private static final int APPLICATION_PORT = 1512;
-    
-    private DatagramSocket socket;
-    private InetAddress address;
-    
-    // Message type sent to Motive on initial connection
-    private static final short MESSAGE_CONNECT = 0;
     // Message type sent from Motive after initial connection is successful
     private static final short MESSAGE_SERVER_INFO = 1;
+    // Message type sent to Motive to request the model definitions
+    static final short MESSAGE_REQUEST_MODEL_DEF = 4;
+    // Message type sent from Motive with the model definitions
+    private static final short MESSAGE_MODEL_DEF = 5;
     // Message type sent when we receive a frame from Motive
     private static final short MESSAGE_FRAME_OF_DATA = 7;
-    // Message type sent to Motive that lets it know we're still listening
-    private static final short MESSAGE_KEEP_ALIVE = 10;
 
-    // Time between keep alive messages, in milliseconds
-    private static final long KEEP_ALIVE_WAIT_PERIOD = 1000; // 1000 ms = 1 second
+    // frame parameter flag set when Motive's models have changed
+    private static final short FRAME_PARAM_MODELS_CHANGED = 0x02;
+
+    private final MotiveEndpoint endpoint;
+    // added to every body id before listeners are updated
+    private final int bodyIDOffset;
+    // one more than the largest id (after the offset) the endpoint's
+    // bodies should take
+    private final int bodyIDLimit;
+    // set once a body outside the endpoint's ids has been reported
+    private boolean bodyOutOfRangeReported;
+
+    private final StreamMetrics metrics;
+
+    // the length of the server name in Motive's server information
+    private static final int SERVER_NAME_LENGTH = 256;
+    // bytes per rigid body in Motive 3: id, position, rotation,
+    // marker error and params
+    private static final int RIGID_BODY_SIZE_V3 = 4 + 12 + 16 + 4 + 2;
+    // bytes per labeled marker in Motive 3: id, position, size,
+    // params and residual
+    private static final int LABELED_MARKER_SIZE_V3 = 4 + 12 + 4 + 2 + 4;
+
+    // the NatNet protocol version from Motive's server information, or 0
+    // until it has been received. Frames and model definitions use the
+    // NatNet 3.x and 4.0 layouts until then.
+    private volatile int natNetMajor;
+    private volatile int natNetMinor;
+    // frequency of the clock Motive timestamps frames with, in ticks
+    // per second, or 0 if Motive hasn't sent it
+    private long highResClockFrequency;
+    // the time the packet being processed was received
+    private long receiveTime;
+    // the time of the frame being processed, passed to listeners: the
+    // cameras' mid-exposure mapped onto the System.nanoTime() clock when
+    // Motive sends it (Motive 3 or higher), otherwise the receive time
+    private long frameTime;
+    // the timestamp of the last frame (Motive 3 or higher)
+    private volatile double lastFrameTimestamp;
+
+    // body ids below this are dispatched through the dispatch table
+    public static final int MAX_INDEXED_BODY_ID = 256;
 
-    // the list of RigidBodyUpdateListeners that will have their update method called
-    // when a frame containing at least one rigid body is received from Motive
-    private List<RigidBodyUpdateListener> rigidBodyUpdateListeners;
-    private List<FrameUpdateListener> frameUpdateListeners;
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    // the models Motive is streaming, as of its last model definitions
+    private volatile ModelDefinitions modelDefinitions = ModelDefinitions.NONE;
+    private volatile boolean modelDefinitionsReceived;
+    // set when the model definitions should be (re)requested from Motive
+    private volatile boolean modelDefinitionsWanted = true;
+    // set when a frame's marker sets didn't match the definitions and they
+    // were requested again, so a persistent mismatch isn't requested forever
+    private boolean markerSetMismatchRequested;
+    private volatile ModelDefinitionsListener[] modelDefinitionsListeners =
+            new ModelDefinitionsListener[0];
+
+    // the subscriptions of RigidBodyUpdateListeners that will have their update method
+    // called when a frame containing at least one rigid body is received from Motive.
+    // These arrays are replaced (never modified) when a listener is added, so
+    // listeners may be added while frames are being received.
+    private volatile Subscription[] rigidBodySubscriptions = NO_SUBSCRIPTIONS;
+    private volatile Subscription[] frameSubscriptions = NO_SUBSCRIPTIONS;
+    // the subscriptions interested in each body id below MAX_INDEXED_BODY_ID,
+    // so a body only touches the listeners that want it
+    private volatile Subscription[][] dispatchTable;
+    // the subscriptions that may be interested in other body ids
+    private volatile Subscription[] unindexedSubscriptions = NO_SUBSCRIPTIONS;
+
+    // the subscriptions as of the start of the frame being parsed
+    private Subscription[] frameRigidBodySubscriptions = NO_SUBSCRIPTIONS;
+    private Subscription[] frameFrameSubscriptions = NO_SUBSCRIPTIONS;
+    // the dispatch table and unindexed subscriptions for the frame being
+    // parsed, without the subscriptions that ignore its bodies (DROP
+    // subscriptions that aren't due), so those cost nothing per body.
+    // When every subscription wants the frame's bodies, frameDispatchTable
+    // is used as it is, and when none do, bodies aren't dispatched at all.
+    // Otherwise only the first activeCounts[id] subscriptions of
+    // activeTable[id] are used. An id's entry is rebuilt from
+    // frameDispatchTable when its body is dispatched, if the subscriptions
+    // or which of them want bodies have changed since (activeGeneration is
+    // counted up on each change).
+    private Subscription[][] frameDispatchTable;
+    private Subscription[] frameUnindexedSubscriptions = NO_SUBSCRIPTIONS;
+    private boolean allSubscriptionsActive;
+    private boolean noSubscriptionsActive;
+    private final Subscription[][] activeTable;
+    private final int[] activeCounts = new int[MAX_INDEXED_BODY_ID];
+    private final int[] activeGenerations = new int[MAX_INDEXED_BODY_ID];
+    private int activeGeneration;
+    private Subscription[] activeUnindexed = NO_SUBSCRIPTIONS;
+    private int activeUnindexedCount;
+    // which of the rigid body subscriptions wanted the last frame's bodies
+    private boolean[] activeSubscriptions = new boolean[0];
     
+    /**
+     * Creates a manager for Motive 2.1.1 running on this machine
+     */
     public CommandStreamManager() {
+        this(MotiveEndpoint.localDefault());
+    }
+
+    /**
+     * @param endpoint the Motive server this manager talks to
+     */
+    public CommandStreamManager(MotiveEndpoint endpoint) {
         super();
-        rigidBodyUpdateListeners = new ArrayList<>();
-        frameUpdateListeners = new ArrayList<>();
-        try {
-            address = InetAddress.getByName("localhost");
-        } catch (IOException e) {
-            System.out.println("Error opening localhost Inet Address");
-            System.out.println(e.getMessage());
-        }
+        this.endpoint = endpoint;
+        bodyIDOffset = endpoint.getBodyIDOffset();
+        bodyIDLimit = bodyIDOffset + endpoint.getBodyIDCount();
+        metrics = new StreamMetrics();
+        dispatchTable = new Subscription[MAX_INDEXED_BODY_ID][];
+        Arrays.fill(dispatchTable, NO_SUBSCRIPTIONS);
+        activeTable = dispatchTable.clone();
+    }
+
+    public MotiveEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return counters describing the packets this manager has received
+     */
+    public StreamMetrics getMetrics() {
+        return metrics;
     }
     
     /**
@@ -74,9 +172,69 @@ public class CommandStreamManager implements Runnable {
      * a rigid body's location is updated within the 3D space
      * within Motive.
      * @param listener The RigidBodyUpdateListener subscribing to updates.
+     * @return the listener's subscription, counting the frames delivered
+     */
+    public Subscription addRigidBodyUpdateListener(RigidBodyUpdateListener listener) {
+        return addRigidBodyUpdateListener(listener, BodyIDFilter.all(), 0, ConflationMode.DROP);
+    }
+
+    /**
+     * Adds a RigidBodyUpdateListener that is only updated with the bodies
+     * accepted by a filter, each time they are updated
+     * @param listener The RigidBodyUpdateListener subscribing to updates.
+     * @param filter the bodies the listener is interested in
+     * @return the listener's subscription, counting the frames delivered
      */
-    public void addRigidBodyUpdateListener(RigidBodyUpdateListener listener) {
-        rigidBodyUpdateListeners.add(listener);
+    public Subscription addRigidBodyUpdateListener(RigidBodyUpdateListener listener,
+            BodyIDFilter filter) {
+        return addRigidBodyUpdateListener(listener, filter, 0, ConflationMode.DROP);
+    }
+
+    /**
+     * Adds a RigidBodyUpdateListener that is updated at most rate times
+     * per second. Frames in between are skipped; under LATEST conflation,
+     * the latest pose of each body in a skipped frame is still delivered
+     * with the next frame (see Subscription).
+     * @param listener The RigidBodyUpdateListener subscribing to updates.
+     * @param rate the most frames per second to deliver, or 0 for every frame
+     * @param mode what to do with bodies in skipped frames
+     * @return the listener's subscription, counting the frames delivered
+     * and suppressed
+     */
+    public Subscription addRigidBodyUpdateListener(RigidBodyUpdateListener listener,
+            double rate, ConflationMode mode) {
+        return addRigidBodyUpdateListener(listener, BodyIDFilter.all(), rate, mode);
+    }
+
+    /**
+     * Adds a RigidBodyUpdateListener that is only updated with the bodies
+     * accepted by a filter, at most rate times per second
+     * @param listener The RigidBodyUpdateListener subscribing to updates.
+     * @param filter the bodies the listener is interested in
+     * @param rate the most frames per second to deliver, or 0 for every frame
+     * @param mode what to do with bodies in skipped frames
+     * @return the listener's subscription, counting the frames delivered
+     * and suppressed
+     */
+    public synchronized Subscription addRigidBodyUpdateListener(RigidBodyUpdateListener listener,
+            BodyIDFilter filter, double rate, ConflationMode mode) {
+        Subscription subscription = new Subscription(listener, null, filter, rate, mode);
+
+        // copy the dispatch table, adding the subscription to each id it accepts
+        Subscription[][] table = dispatchTable.clone();
+        final int first = Math.max(0, filter.getFirst());
+        final int last = Math.min(MAX_INDEXED_BODY_ID - 1, filter.getLast());
+        for (int id = first; id <= last; id++) {
+            if (filter.accepts(id)) {
+                table[id] = append(table[id], subscription);
+            }
+        }
+        if (filter.getFirst() < 0 || filter.getLast() >= MAX_INDEXED_BODY_ID) {
+            unindexedSubscriptions = append(unindexedSubscriptions, subscription);
+        }
+        dispatchTable = table;
+        rigidBodySubscriptions = append(rigidBodySubscriptions, subscription);
+        return subscription;
     }
 
     /**
@@ -84,40 +242,209 @@ public class CommandStreamManager implements Runnable {
      * This will cause the listener to be updated each time
      * a frame is received from Motive.
      * @param listener The subscribing listener
+     * @return the listener's subscription, counting the frames delivered
      */
-    public void addFrameUpdateListener(FrameUpdateListener listener) {
-        frameUpdateListeners.add(listener);
+    public Subscription addFrameUpdateListener(FrameUpdateListener listener) {
+        return addFrameUpdateListener(listener, 0);
     }
-    
+
     /**
-     * Sends a 'keep alive' signal to Motive, which tells Motive
-     * that we're still listening for packets.
+     * Adds a FrameUpdateListener that is updated at most rate times per
+     * second
+     * @param listener The subscribing listener
+     * @param rate the most frames per second to deliver, or 0 for every frame
+     * @return the listener's subscription, counting the frames delivered
+     * and suppressed
      */
-    private void sendKeepAliveSignal() {
-        byte[] buffer = new byte[5];
-        ByteBuffer wrapper = ByteBuffer.wrap(buffer).order(
-                MOTIVE_PACKET_BYTE_ORDER);
-        try {
-            DatagramPacket sent = new DatagramPacket(buffer, buffer.length, 
-                    address, MOTIVE_COMMAND_PORT);
-            wrapper.putShort(MESSAGE_KEEP_ALIVE);
-                socket.send(sent);
-        } catch (IOException e) {
-            e.printStackTrace();
+    public synchronized Subscription addFrameUpdateListener(FrameUpdateListener listener,
+            double rate) {
+        Subscription subscription = new Subscription(null, listener, BodyIDFilter.all(),
+                rate, ConflationMode.DROP);
+        frameSubscriptions = append(frameSubscriptions, subscription);
+        return subscription;
+    }
+
+    /**
+     * Adds a listener called with Motive's model definitions each time
+     * they are received
+     * @param listener The subscribing listener
+     */
+    public synchronized void addModelDefinitionsListener(ModelDefinitionsListener listener) {
+        ModelDefinitionsListener[] listeners = Arrays.copyOf(modelDefinitionsListeners,
+                modelDefinitionsListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        modelDefinitionsListeners = listeners;
+    }
+
+    /**
+     * @return the models Motive is streaming, with no models until Motive
+     * has sent its model definitions
+     */
+    public ModelDefinitions getModelDefinitions() {
+        return modelDefinitions;
+    }
+
+    /**
+     * @return true once Motive has sent its model definitions
+     */
+    public boolean hasModelDefinitions() {
+        return modelDefinitionsReceived;
+    }
+
+    /**
+     * Called by the receiver to find out whether the model definitions
+     * should be requested from Motive. They are wanted on connection, and
+     * again when Motive reports the models changed.
+     * @return true (once per request) if the definitions should be requested
+     */
+    boolean takeModelDefinitionsRequest() {
+        if (!modelDefinitionsWanted) {
+            return false;
+        }
+        modelDefinitionsWanted = false;
+        return true;
+    }
+
+    private static Subscription[] append(Subscription[] subscriptions, Subscription subscription) {
+        Subscription[] appended = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        appended[subscriptions.length] = subscription;
+        return appended;
+    }
+
+    /**
+     * Takes the subscriptions for the frame being parsed, and decides
+     * which of them the frame is delivered to
+     */
+    private void beginFrame() {
+        final Subscription[] subscriptions = rigidBodySubscriptions;
+        final Subscription[][] table = dispatchTable;
+        final Subscription[] unindexed = unindexedSubscriptions;
+        boolean changed = subscriptions != frameRigidBodySubscriptions
+                || table != frameDispatchTable;
+        if (changed) {
+            activeSubscriptions = new boolean[subscriptions.length];
+        }
+        frameRigidBodySubscriptions = subscriptions;
+        frameFrameSubscriptions = frameSubscriptions;
+        frameDispatchTable = table;
+        frameUnindexedSubscriptions = unindexed;
+        int activeCount = 0;
+        for (int i = 0; i < subscriptions.length; i++) {
+            final Subscription subscription = subscriptions[i];
+            subscription.beginFrame(receiveTime);
+            final boolean active = subscription.wantsRigidBodies();
+            if (active) {
+                activeCount++;
+            }
+            if (active != activeSubscriptions[i]) {
+                activeSubscriptions[i] = active;
+                changed = true;
+            }
+        }
+        allSubscriptionsActive = activeCount == subscriptions.length;
+        noSubscriptionsActive = activeCount == 0;
+        if (changed && !allSubscriptionsActive && !noSubscriptionsActive) {
+            // each id's active subscriptions are rebuilt when it's dispatched
+            activeGeneration++;
+            if (activeUnindexed.length < unindexed.length) {
+                activeUnindexed = new Subscription[unindexed.length];
+            }
+            activeUnindexedCount = keepActive(unindexed, activeUnindexed);
+        }
+        for (Subscription subscription : frameFrameSubscriptions) {
+            subscription.beginFrame(receiveTime);
         }
     }
 
     /**
-     * A new Thread is created within the run() method.
-     * This method contains a loop which will call sendKeepAliveSignal
-     * once every KEEP_ALIVE_WAIT_PERIOD milliseconds.
+     * Copies the subscriptions that want the frame's bodies
+     * @return the number copied
      */
-    private void keepAliveDaemon() {
-        while (true) {
-            try {
-                Thread.sleep(KEEP_ALIVE_WAIT_PERIOD);
-            } catch (InterruptedException e) {}
-            sendKeepAliveSignal();
+    private static int keepActive(Subscription[] subscriptions, Subscription[] active) {
+        int count = 0;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.wantsRigidBodies()) {
+                active[count++] = subscription;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Passes a rigid body to the subscriptions interested in it
+     */
+    private void dispatchRigidBody(int bodyID, float x, float y, float z,
+            float qx, float qy, float qz, float qw) {
+        if (bodyID < bodyIDOffset || bodyID >= bodyIDLimit) {
+            bodyOutOfRange(bodyID);
+        }
+        if (noSubscriptionsActive) {
+            return;
+        }
+        if (allSubscriptionsActive) {
+            if (bodyID >= 0 && bodyID < MAX_INDEXED_BODY_ID) {
+                for (Subscription subscription : frameDispatchTable[bodyID]) {
+                    subscription.rigidBodyUpdate(bodyID, x, y, z, qx, qy, qz, qw, frameTime);
+                }
+                return;
+            }
+            for (Subscription subscription : frameUnindexedSubscriptions) {
+                if (subscription.getFilter().accepts(bodyID)) {
+                    subscription.rigidBodyUpdate(bodyID, x, y, z, qx, qy, qz, qw, frameTime);
+                }
+            }
+            return;
+        }
+        if (bodyID >= 0 && bodyID < MAX_INDEXED_BODY_ID) {
+            if (activeGenerations[bodyID] != activeGeneration) {
+                final Subscription[] interested = frameDispatchTable[bodyID];
+                if (activeTable[bodyID].length < interested.length) {
+                    activeTable[bodyID] = new Subscription[interested.length];
+                }
+                activeCounts[bodyID] = keepActive(interested, activeTable[bodyID]);
+                activeGenerations[bodyID] = activeGeneration;
+            }
+            final Subscription[] subscriptions = activeTable[bodyID];
+            final int count = activeCounts[bodyID];
+            for (int i = 0; i < count; i++) {
+                subscriptions[i].rigidBodyUpdate(bodyID, x, y, z, qx, qy, qz, qw, frameTime);
+            }
+            return;
+        }
+        for (int i = 0; i < activeUnindexedCount; i++) {
+            final Subscription subscription = activeUnindexed[i];
+            if (subscription.getFilter().accepts(bodyID)) {
+                subscription.rigidBodyUpdate(bodyID, x, y, z, qx, qy, qz, qw, frameTime);
+            }
+        }
+    }
+
+    /**
+     * Counts a body whose id is outside the endpoint's body ids, reporting
+     * the first. It is still dispatched, but the game doesn't keep state
+     * for ids past MotiveEndpoint.MAX_BODY_IDS, and other arenas may use
+     * the id.
+     */
+    private void bodyOutOfRange(int bodyID) {
+        metrics.bodyOutOfRange();
+        if (!bodyOutOfRangeReported) {
+            bodyOutOfRangeReported = true;
+            System.out.println("Body " + (bodyID - bodyIDOffset) + " from " + endpoint
+                    + " has id " + bodyID + ", outside its body ids " + bodyIDOffset
+                    + " to " + (bodyIDLimit - 1));
+        }
+    }
+
+    /**
+     * Finishes the frame being parsed: delivers conflated bodies, then
+     * updates the frame listeners that are due
+     */
+    private void endFrame() {
+        for (Subscription subscription : frameRigidBodySubscriptions) {
+            subscription.endFrame(frameTime);
+        }
+        for (Subscription subscription : frameFrameSubscriptions) {
+            subscription.endFrame(frameTime);
         }
     }
 
@@ -128,36 +455,17 @@ public class CommandStreamManager implements Runnable {
      
      * Note: this method works with Motive version 2.1.1
 
-     * @param buffer a ByteBuffer passed by run()
+     * @param buffer a ByteBuffer passed by handleFrameData()
      */
     private void handleFrameDataV2_1_1(ByteBuffer buffer) {
         short bufferSize = buffer.getShort();
         // dumpBuffer(buffer.array(), bufferSize);
         int frameNumber = buffer.getInt();
-        final int markerSetCount = buffer.getInt();
-        // System.out.printf("buffer size: %d\nframe no: %d\nmarket set count: %d\n",
-        //         bufferSize, frameNumber, markerSetCount);
-        // List<String> modelNames = new ArrayList<>();
-        for (int markerSet = 0; markerSet < markerSetCount; markerSet++) {
-            byte c = 1;
-            int offset = buffer.position();
-            int size = 0;
-            while (c != 0) {
-                c = buffer.get();
-                size++;
-            }
-            // try {
-            //     System.out.println(new String(buffer.array(), offset, size, 
-            //             "UTF-8"));
-            // } catch (UnsupportedEncodingException ex) {}
-            int markerCount = buffer.getInt();
-            for (int marker = 0; marker < markerCount; marker++) {
-                float x = buffer.getFloat();
-                float y = buffer.getFloat();
-                float z = buffer.getFloat();
-                // System.out.printf("%d %.2f %.2f %.2f\n", marker, x, y, z);
-            }
-        }
+        metrics.frameReceived(frameNumber);
+        // frames carry no timestamps before Motive 3
+        frameTime = receiveTime;
+        beginFrame();
+        skipMarkerSets(buffer);
         final int unlabeledMarkerCount = buffer.getInt();
         // System.out.printf("ulmarker count: %d\n", unlabeledMarkerCount);
         for (int marker = 0; marker < unlabeledMarkerCount; marker++) {
@@ -170,25 +478,21 @@ public class CommandStreamManager implements Runnable {
         // System.out.printf("RB count: %d\n", rigidBodyCount);
         for (int body = 0; body < rigidBodyCount; body++) {
             // id (this will come into play when we have multiple bodies)
-            int bodyID = buffer.getInt();
+            int bodyID = buffer.getInt() + bodyIDOffset;
             // coordinates of the rigid body (what we wanted!)
             float x = buffer.getFloat();
             float y = buffer.getFloat();
             float z = buffer.getFloat();
             // System.out.printf("id: %d %.2f %.2f %.2f\n", bodyID, x, y, z);
-            for (RigidBodyUpdateListener listener : rigidBodyUpdateListeners) {
-                if (listener != null)
-                    listener.update(bodyID, x, y, z);
-            }
-            float[] quaternions = new float[4];
-            // unneeded rotational information
-            quaternions[0] = buffer.getFloat();
-            quaternions[1] = buffer.getFloat();
-            quaternions[2] = buffer.getFloat();
-            quaternions[3] = buffer.getFloat();
+            // rotation of the rigid body, as a quaternion
+            float qx = buffer.getFloat();
+            float qy = buffer.getFloat();
+            float qz = buffer.getFloat();
+            float qw = buffer.getFloat();
+            dispatchRigidBody(bodyID, x, y, z, qx, qy, qz, qw);
 
             // System.out.printf("rb id %d: %.2f, %.2f, %.2f ... %.2f, %.2f, %.2f, %.2f\n",
-            //         bodyID, x, y, z, quaternions[0], quaternions[1], quaternions[2], quaternions[3]);
+            //         bodyID, x, y, z, qx, qy, qz, qw);
 
             // get rid of junk in the way
             buffer.getFloat();
@@ -249,9 +553,7 @@ public class CommandStreamManager implements Runnable {
         //         }
         //     }
         // }
-        for (FrameUpdateListener listener : frameUpdateListeners) {
-            listener.update();
-        }
+        endFrame();
     }
     
     /**
@@ -259,60 +561,60 @@ public class CommandStreamManager implements Runnable {
      * It also updates the stream manager's rigid body listeners
      * (This is what drives the animation of the panel)
      
-     * Note: this method works with Motive versions 3 or higher
+     * Note: this method works with Motive versions 3 or higher, using the
+     * frame layout of the NatNet version in Motive's server information
 
-     * @param buffer a ByteBuffer passed by run()
+     * @param buffer a ByteBuffer passed by handleFrameData()
      */
     private void handleFrameDataV3(ByteBuffer buffer) {
         short bufferSize = buffer.getShort();
         int frameNumber = buffer.getInt();
-        int markerSetCount = buffer.getInt();
-        // List<String> modelNames = new ArrayList<>();
-        for (int markerSet = 0; markerSet < markerSetCount; markerSet++) {
-            byte c = 1;
-            int offset = buffer.position();
-            int size = 0;
-            while (c != 0) {
-                c = buffer.get();
-                size++;
-            }
-            // try {
-            //     System.out.println(new String(buffer.array(), offset, size, 
-            //             "UTF-8"));
-            // } catch (UnsupportedEncodingException ex) {}
-            int markerCount = buffer.getInt();
-            for (int marker = 0; marker < markerCount; marker++) {
-                float x = buffer.getFloat();
-                float y = buffer.getFloat();
-                float z = buffer.getFloat();
-                // System.out.printf("%d %.2f %.2f %.2f\n", marker, x, y, z);
-            }
+        metrics.frameReceived(frameNumber);
+        // NatNet 4.1 and higher follow each section's count with its size
+        final boolean sized = hasSizedSections();
+        if (sized) {
+            skipSizedSection(buffer);
+        } else {
+            skipMarkerSets(buffer);
         }
-        int unlabeledMarkerCount = buffer.getInt();
-        for (int marker = 0; marker < unlabeledMarkerCount; marker++) {
-            float x = buffer.getFloat();
-            float y = buffer.getFloat();
-            float z = buffer.getFloat();
+        if (sized) {
+            skipSizedSection(buffer);
+        } else {
+            int unlabeledMarkerCount = buffer.getInt();
+            skip(buffer, unlabeledMarkerCount * 12);
         }
         int rigidBodyCount = buffer.getInt();
+        if (sized) {
+            int rigidBodySize = buffer.getInt();
+        }
+        // the frame's time is in the timing information after the rigid
+        // bodies, so that is read first; the bodies are dispatched even if
+        // the data after them can't be read
+        final int rigidBodyPosition = buffer.position();
+        skip(buffer, rigidBodyCount * RIGID_BODY_SIZE_V3);
+        frameTime = receiveTime;
+        try {
+            handleFrameTrailerV3(buffer, sized);
+        } catch (BufferUnderflowException e) {
+            metrics.trailerError();
+        }
+        buffer.position(rigidBodyPosition);
+
+        beginFrame();
         for (int body = 0; body < rigidBodyCount; body++) {
             // id (this will come into play when we have multiple bodies)
-            int bodyID = buffer.getInt();
+            int bodyID = buffer.getInt() + bodyIDOffset;
             // coordinates of the rigid body (what we wanted!)
             float x = buffer.getFloat();
             float y = buffer.getFloat();
             float z = buffer.getFloat();
             // System.out.printf("id: %d %.2f %.2f %.2f\n", bodyID, x, y, z);
-            for (RigidBodyUpdateListener listener : rigidBodyUpdateListeners) {
-                if (listener != null)
-                    listener.update(bodyID, x, y, z);
-            }
-            float[] quaternions = new float[4];
-            // unneeded rotational information
-            quaternions[0] = buffer.getFloat();
-            quaternions[1] = buffer.getFloat();
-            quaternions[2] = buffer.getFloat();
-            quaternions[3] = buffer.getFloat();
+            // rotation of the rigid body, as a quaternion
+            float qx = buffer.getFloat();
+            float qy = buffer.getFloat();
+            float qz = buffer.getFloat();
+            float qw = buffer.getFloat();
+            dispatchRigidBody(bodyID, x, y, z, qx, qy, qz, qw);
 
             // determine what direction the body is facing based on the quaternions
             // this is strictly the rotation along the Z axis
@@ -332,31 +634,60 @@ public class CommandStreamManager implements Runnable {
             byte byteB = buffer.get();
             boolean trackingValid = (byteA & 0x01) != 0;
         }
-        // below is NOT WORKING... but may not be needed ;)
-        // int skeletonCount = buffer.getInt();
-        // for (int skeleton = 0; skeleton < skeletonCount; skeleton++) {
-        //     int skeletonID = buffer.getInt();
-        //     int skeletonRigidBodyCount = buffer.getInt();
-        //     for (int body = 0; body < skeletonRigidBodyCount; body++) {
-        //         int bodyID = buffer.getInt();
-        //         float x = buffer.getFloat();
-        //         float y = buffer.getFloat();
-        //         float z = buffer.getFloat();
-        //         System.out.printf("body %d location: %.2f, %.2f, %.2f\n", 
-        //                 bodyID, x, y, z);
-        //         float orientationX = buffer.getFloat();
-        //         float orientationY = buffer.getFloat();
-        //         float orientationZ = buffer.getFloat();
-        //         int bodyMarkerCount = buffer.getInt();
-        //         for (int marker = 0; marker < bodyMarkerCount; marker++) {
-        //             float markerX = buffer.getFloat();
-        //             float markerY = buffer.getFloat();
-        //             float markerZ = buffer.getFloat();
-        //         }
-        //     }
-        // }
-        for (FrameUpdateListener listener : frameUpdateListeners) {
-            listener.update();
+        endFrame();
+    }
+
+    /**
+     * Reads the part of a Motive 3 frame after the rigid bodies: skeletons,
+     * assets, labeled markers, force plates and devices (all skipped),
+     * then the frame's timing information and params, which give the
+     * frame's time
+     * @param sized true if the frame uses the NatNet 4.1 or higher layout
+     */
+    private void handleFrameTrailerV3(ByteBuffer buffer, boolean sized) {
+        if (sized) {
+            // skeletons, assets, labeled markers, force plates and devices
+            // (not used)
+            for (int section = 0; section < 5; section++) {
+                skipSizedSection(buffer);
+            }
+        } else {
+            // skeletons (not used): id, then rigid bodies laid out as above
+            int skeletonCount = buffer.getInt();
+            for (int skeleton = 0; skeleton < skeletonCount; skeleton++) {
+                int skeletonID = buffer.getInt();
+                int skeletonRigidBodyCount = buffer.getInt();
+                skip(buffer, skeletonRigidBodyCount * RIGID_BODY_SIZE_V3);
+            }
+            // labeled markers (not used)
+            int labeledMarkerCount = buffer.getInt();
+            skip(buffer, labeledMarkerCount * LABELED_MARKER_SIZE_V3);
+            // force plates, then devices (not used)
+            skipAnalogData(buffer);
+            skipAnalogData(buffer);
+        }
+
+        // frame timing information
+        int timecode = buffer.getInt();
+        int timecodeSubframe = buffer.getInt();
+        double timestamp = buffer.getDouble();
+        long cameraMidExposureTimestamp = buffer.getLong();
+        long cameraDataReceivedTimestamp = buffer.getLong();
+        long transmitTimestamp = buffer.getLong();
+        if (sized) {
+            // precision timestamp: seconds and fraction (not used)
+            int precisionSeconds = buffer.getInt();
+            int precisionFraction = buffer.getInt();
+        }
+        short frameParams = buffer.getShort();
+        if ((frameParams & FRAME_PARAM_MODELS_CHANGED) != 0) {
+            modelDefinitionsWanted = true;
+        }
+        lastFrameTimestamp = timestamp;
+        metrics.frameTiming(receiveTime, cameraMidExposureTimestamp,
+                transmitTimestamp, highResClockFrequency);
+        if (highResClockFrequency > 0) {
+            frameTime = metrics.toLocalTime(cameraMidExposureTimestamp, highResClockFrequency);
         }
     }
 
@@ -367,33 +698,16 @@ public class CommandStreamManager implements Runnable {
      * 
      * Note: this version works with Motive version 1.10.2 only.
 
-     * @param buffer a ByteBuffer passed by run()
+     * @param buffer a ByteBuffer passed by handleFrameData()
      */
     private void handleFrameDataV1_10_2(ByteBuffer buffer) {
         short bufferSize = buffer.getShort();
         int frameNumber = buffer.getInt();
-        final int markerSetCount = buffer.getInt();
-        // List<String> modelNames = new ArrayList<>();
-        for (int markerSet = 0; markerSet < markerSetCount; markerSet++) {
-            byte c = 1;
-            int offset = buffer.position();
-            int size = 0;
-            while (c != 0) {
-                c = buffer.get();
-                size++;
-            }
-            // try {
-            //     System.out.println(new String(buffer.array(), offset, size, 
-            //             "UTF-8"));
-            // } catch (UnsupportedEncodingException ex) {}
-            final int markerCount = buffer.getInt();
-            for (int marker = 0; marker < markerCount; marker++) {
-                float x = buffer.getFloat();
-                float y = buffer.getFloat();
-                float z = buffer.getFloat();
-                // System.out.printf("%d %.2f %.2f %.2f\n", marker, x, y, z);
-            }
-        }
+        metrics.frameReceived(frameNumber);
+        // frames carry no timestamps before Motive 3
+        frameTime = receiveTime;
+        beginFrame();
+        skipMarkerSets(buffer);
         final int unlabeledMarkerCount = buffer.getInt();
         for (int marker = 0; marker < unlabeledMarkerCount; marker++) {
             float x = buffer.getFloat();
@@ -404,23 +718,20 @@ public class CommandStreamManager implements Runnable {
         for (int body = 0; body < rigidBodyCount; body++) {
             //System.out.println(body);
             // id (this will come into play when we have multiple bodies)
-            int bodyID = buffer.getInt();
-            System.out.println(bodyID);
+            int bodyID = buffer.getInt() + bodyIDOffset;
+            // System.out.println(bodyID);
             //System.out.println("body id: " + bodyID);
             // coordinates of the rigid body (what we wanted!)
             float x = buffer.getFloat();
             float y = buffer.getFloat();
             float z = buffer.getFloat();
             // System.out.printf("id: %d %.2f %.2f %.2f\n", bodyID, x, y, z);
-            for (RigidBodyUpdateListener listener : rigidBodyUpdateListeners) {
-                listener.update(bodyID, x, y, z);
-            }
-            float[] quaternions = new float[4];
-            // unneeded rotational information
-            quaternions[0] = buffer.getFloat();
-            quaternions[1] = buffer.getFloat();
-            quaternions[2] = buffer.getFloat();
-            quaternions[3] = buffer.getFloat();
+            // rotation of the rigid body, as a quaternion
+            float qx = buffer.getFloat();
+            float qy = buffer.getFloat();
+            float qz = buffer.getFloat();
+            float qw = buffer.getFloat();
+            dispatchRigidBody(bodyID, x, y, z, qx, qy, qz, qw);
 
             // determine what direction the body is facing based on the quaternions
             // this is strictly the rotation along the Z axis
@@ -465,63 +776,224 @@ public class CommandStreamManager implements Runnable {
         //         }
         //     }
         // }
-        for (FrameUpdateListener listener : frameUpdateListeners) {
-            listener.update();
-        }
+        endFrame();
     }
     
+    /**
+     * Skips the marker sets at the start of a frame. When the marker sets
+     * match the model definitions, each name is compared with its cached
+     * name in one step, instead of being scanned a byte at a time for its
+     * end. Otherwise names are scanned, and the definitions are requested
+     * again (once per mismatch) in case the models changed.
+     */
+    private void skipMarkerSets(ByteBuffer buffer) {
+        final int markerSetCount = buffer.getInt();
+        final ModelDefinitions definitions = modelDefinitions;
+        boolean matched = definitions.getMarkerSetCount() == markerSetCount;
+        for (int markerSet = 0; markerSet < markerSetCount; markerSet++) {
+            final int nameLength = matched ? definitions.matchMarkerSetName(markerSet, buffer) : -1;
+            if (nameLength >= 0) {
+                skip(buffer, nameLength);
+            } else {
+                matched = false;
+                while (buffer.get() != 0) {
+                }
+            }
+            final int markerCount = buffer.getInt();
+            skip(buffer, markerCount * 12);
+        }
+        if (matched) {
+            markerSetMismatchRequested = false;
+        } else if (modelDefinitionsReceived && !markerSetMismatchRequested) {
+            markerSetMismatchRequested = true;
+            modelDefinitionsWanted = true;
+        }
+    }
+
+    /**
+     * Skips a section of a NatNet 4.1 or higher frame, which is a count
+     * of items followed by the section's size in bytes
+     */
+    private static void skipSizedSection(ByteBuffer buffer) {
+        int itemCount = buffer.getInt();
+        int size = buffer.getInt();
+        skip(buffer, size);
+    }
+
+    /**
+     * Skips force plate or device data, which is a count of items, each
+     * with an id and a count of channels, each holding a count of samples
+     */
+    private static void skipAnalogData(ByteBuffer buffer) {
+        int itemCount = buffer.getInt();
+        for (int item = 0; item < itemCount; item++) {
+            int itemID = buffer.getInt();
+            int channelCount = buffer.getInt();
+            for (int channel = 0; channel < channelCount; channel++) {
+                int sampleCount = buffer.getInt();
+                skip(buffer, sampleCount * 4);
+            }
+        }
+    }
+
+    /**
+     * Advances a buffer's position
+     * @throws BufferUnderflowException if fewer than count bytes remain
+     */
+    private static void skip(ByteBuffer buffer, int count) {
+        if (count < 0 || count > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + count);
+    }
+
+    /**
+     * Reads Motive's server information, sent once on connection: its
+     * name, its version and the NatNet version it streams with. Motive 3
+     * and higher include the frequency of the clock used to timestamp
+     * frames.
+     */
+    private void handleServerInfo(ByteBuffer buffer) {
+        short packetSize = buffer.getShort();
+        // server name and server version
+        skip(buffer, SERVER_NAME_LENGTH + 4);
+        // NatNet version: major, minor, build and revision
+        int major = buffer.get() & 0xFF;
+        int minor = buffer.get() & 0xFF;
+        skip(buffer, 2);
+        natNetMinor = minor;
+        natNetMajor = major;
+        if (buffer.remaining() >= 8) {
+            highResClockFrequency = buffer.getLong();
+        }
+    }
+
+    /**
+     * Reads Motive's model definitions, sent in reply to a request
+     */
+    private void handleModelDefinitions(ByteBuffer buffer) {
+        short packetSize = buffer.getShort();
+        ModelDefinitions definitions = ModelDefinitions.parse(buffer, endpoint.getVersion(),
+                natNetMajor, natNetMinor, bodyIDOffset);
+        modelDefinitions = definitions;
+        modelDefinitionsReceived = true;
+        for (ModelDefinitionsListener listener : modelDefinitionsListeners) {
+            listener.modelDefinitionsUpdated(definitions);
+        }
+    }
+
+    /**
+     * @return the major NatNet version Motive streams with, or 0 until
+     * Motive has sent its server information
+     */
+    public int getNatNetMajorVersion() {
+        return natNetMajor;
+    }
+
+    /**
+     * @return the minor NatNet version Motive streams with
+     */
+    public int getNatNetMinorVersion() {
+        return natNetMinor;
+    }
+
+    /**
+     * @return true if Motive streams with NatNet 4.1 or higher, which
+     * gives the size of each frame section (and model definition)
+     */
+    private boolean hasSizedSections() {
+        final int major = natNetMajor;
+        return major > 4 || (major == 4 && natNetMinor >= 1);
+    }
+
+    /**
+     * @return the timestamp of the last frame received, in seconds since
+     * Motive started streaming (Motive 3 or higher only)
+     */
+    public double getLastFrameTimestamp() {
+        return lastFrameTimestamp;
+    }
+
+    /**
+     * Receives packets from this manager's Motive server until an error
+     * occurs. To serve several managers from one thread, run a
+     * MotiveReceiver instead.
+     */
     @Override
     public void run() {
+        new MotiveReceiver(Collections.singletonList(this)).run();
+    }
+
+    /**
+     * Handles a single packet received from Motive, updating this
+     * manager's listeners if it contains frame data.
+     * 
+     * This is called by a MotiveReceiver for each packet received over
+     * the network, but may also be called directly by a replay source
+     * such as SyntheticFrameSource, which allows the manager to be driven
+     * without a Motive server.
+     * @param buffer a little-endian ByteBuffer positioned at the start
+     * of the packet, with its limit at the end of the packet
+     */
+    public void processPacket(ByteBuffer buffer) {
+        processPacket(buffer, System.nanoTime());
+    }
+
+    /**
+     * Handles a single packet received from Motive, as above
+     * @param buffer a little-endian ByteBuffer positioned at the start
+     * of the packet, with its limit at the end of the packet
+     * @param receiveTime the time the packet was received, from System.nanoTime()
+     */
+    public void processPacket(ByteBuffer buffer, long receiveTime) {
+        this.receiveTime = receiveTime;
+        metrics.packetReceived(buffer.remaining());
         try {
-            // Start with an unbound socket
-            socket = new DatagramSocket(APPLICATION_PORT, address);
-            // create a 64K byte buffer
-            byte[] buffer = new byte[64 * 1024];
-            // Create a packet which will be sent to Motive
-            DatagramPacket sent = new DatagramPacket(buffer, 2, address, MOTIVE_COMMAND_PORT);
-            // Send the packet (size of 2 bytes, both bytes 0) to Motive
-            // These two zero bytes indicate the MESSAGE_CONNECT signal,
-            // causing Motive to begin sending us frame data (yay)
-            socket.send(sent);
-            // Create a packet data structure that will be used to 
-            // receive packets from Motive
-            DatagramPacket received = new DatagramPacket(buffer, buffer.length,
-                    sent.getAddress(), sent.getPort());
-            ByteBuffer wrapper = ByteBuffer.wrap(buffer).order(
-                    MOTIVE_PACKET_BYTE_ORDER);
-
-            // Create a background thread that will send Motive a keep alive signal
-            // once every KEEP_ALIVE_WAIT_PERIOD milliseconds 
-            // (this maintains the connection to Motive)
-            new Thread(this::keepAliveDaemon).start();
-
-            // Continuously receive packets from Motive
-            while (true) {
-                // Block thread until packet received
-                socket.receive(received);
-                // Determine packet type
-                short messageType = wrapper.getShort();
-                switch (messageType) {
-                    case MESSAGE_SERVER_INFO:
-                        // This only happens once, on initial connection
-                        System.out.println("Successfully connected to "
-                                + "command server!");
-                        break;
-                    case MESSAGE_FRAME_OF_DATA:
-                        // This case occurs roughly 60-120 times/second
-
-                        // Method call breaks down the packet into useful data
-                        // and updates the manager's listeners with this new data 
-                        handleFrameDataV2_1_1(wrapper);
-                        break;
-                    default:
-                        // do nothing; we don't care about other messages
-                }
-                // reset the wrapper to the first byte in the buffer
-                wrapper.rewind();
+            // Determine packet type
+            short messageType = buffer.getShort();
+            switch (messageType) {
+                case MESSAGE_SERVER_INFO:
+                    // This only happens once, on initial connection
+                    handleServerInfo(buffer);
+                    System.out.println("Successfully connected to "
+                            + "command server " + endpoint + " (NatNet "
+                            + natNetMajor + "." + natNetMinor + ")!");
+                    break;
+                case MESSAGE_MODEL_DEF:
+                    handleModelDefinitions(buffer);
+                    break;
+                case MESSAGE_FRAME_OF_DATA:
+                    // This case occurs roughly 60-120 times/second
+
+                    // Method call breaks down the packet into useful data
+                    // and updates the manager's listeners with this new data 
+                    handleFrameData(buffer);
+                    break;
+                default:
+                    // we don't care about other messages
+                    metrics.unknownMessage();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (BufferUnderflowException e) {
+            // the packet was shorter than its contents claimed
+            metrics.parseError();
+        }
+    }
+
+    /**
+     * Parses a frame of data using the layout of the endpoint's Motive version
+     * @param buffer a ByteBuffer positioned after the message type
+     */
+    private void handleFrameData(ByteBuffer buffer) {
+        switch (endpoint.getVersion()) {
+            case V1_10_2:
+                handleFrameDataV1_10_2(buffer);
+                break;
+            case V2_1_1:
+                handleFrameDataV2_1_1(buffer);
+                break;
+            case V3:
+                handleFrameDataV3(buffer);
+                break;
         }
     }
 
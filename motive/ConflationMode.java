@@ -0,0 +1,19 @@
+package motive;
+
+/**
+ * What a rate-limited Subscription does with the rigid body updates in
+ * frames it isn't due to receive
+ */
+public enum ConflationMode {
+    /**
+     * Updates in skipped frames are dropped; the subscriber only sees the
+     * bodies in the frames it receives
+     */
+    DROP,
+    /**
+     * The latest update of each body in skipped frames is kept, and
+     * delivered with the next frame the subscriber receives if that frame
+     * doesn't update the body itself
+     */
+    LATEST
+}
@@ -2,4 +2,15 @@ package motive;
 
 public interface FrameUpdateListener {
     void update();
+
+    /**
+     * Called at the end of a frame with the frame's time. Listeners that
+     * timestamp what they detect override this method; by default the
+     * time is ignored and update() is called.
+     * @param time the frame's time, on the System.nanoTime() clock (see
+     * CommandStreamManager)
+     */
+    default void update(long time) {
+        update();
+    }
 }
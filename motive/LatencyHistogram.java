@@ -0,0 +1,109 @@
+package motive;
+
+/**
+ * A fixed-size histogram of latencies.
+ *
+ * Latencies are counted in BUCKET_WIDTH buckets up to MAX_LATENCY; longer
+ * latencies are counted in a final overflow bucket. Recording a latency
+ * is O(1) and never allocates.
+ *
+ * Latencies are recorded by a single thread and may be read from any
+ * thread; values read while latencies are being recorded may be slightly
+ * out of step with one another.
+ */
+public class LatencyHistogram {
+
+    // the width of each bucket, in nanoseconds
+    public static final long BUCKET_WIDTH = 50_000L; // 50 us
+    // the largest latency counted in its own bucket, in nanoseconds
+    public static final long MAX_LATENCY = 100_000_000L; // 100 ms
+
+    private final long[] counts;
+    private volatile long count;
+    private volatile long total;
+    private volatile long max;
+
+    public LatencyHistogram() {
+        // one extra bucket for latencies over MAX_LATENCY
+        counts = new long[(int) (MAX_LATENCY / BUCKET_WIDTH) + 1];
+    }
+
+    /**
+     * Counts a latency. Negative latencies are counted as 0.
+     * @param latency the latency, in nanoseconds
+     */
+    public void record(long latency) {
+        if (latency < 0) {
+            latency = 0;
+        }
+        counts[(int) Math.min(latency / BUCKET_WIDTH, counts.length - 1)]++;
+        count++;
+        total += latency;
+        if (latency > max) {
+            max = latency;
+        }
+    }
+
+    /**
+     * Adds another histogram's counts to this one
+     * @param other the histogram to add
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean latency, in nanoseconds
+     */
+    public long getMean() {
+        long n = count;
+        return n == 0 ? 0 : total / n;
+    }
+
+    /**
+     * @return the largest latency recorded, in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile a percentile between 0 and 100
+     * @return the upper bound of the bucket containing the percentile,
+     * capped at the maximum, in nanoseconds
+     */
+    public long getPercentile(double percentile) {
+        final long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        final long target = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length - 1; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min((i + 1) * BUCKET_WIDTH, max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("p50/p99/max (us): %d/%d/%d", getPercentile(50) / 1000,
+                getPercentile(99) / 1000, getMax() / 1000);
+    }
+
+}
@@ -0,0 +1,329 @@
+package motive;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The models (marker sets and rigid bodies) Motive is streaming, as
+ * described by its model definitions ("data descriptions") message.
+ *
+ * A CommandStreamManager requests the definitions when it connects and
+ * again when Motive reports that they changed. Each set of definitions is
+ * immutable, and every name is decoded once, when the definitions are
+ * received, so listeners can look up a body's name each frame without
+ * allocating. Rigid body ids include the endpoint's body id offset, so
+ * they match the ids listeners are updated with.
+ */
+public class ModelDefinitions {
+
+    // description types within the model definitions message
+    private static final int TYPE_MARKER_SET = 0;
+    private static final int TYPE_RIGID_BODY = 1;
+    private static final int TYPE_SKELETON = 2;
+
+    /**
+     * The definitions used until Motive sends its own
+     */
+    static final ModelDefinitions NONE = new ModelDefinitions(new String[0], new byte[0][],
+            new int[0], new int[0], new String[0], new int[0], new int[0]);
+
+    private final String[] markerSetNames;
+    // each marker set name as sent by Motive, including the NUL terminator
+    private final byte[][] markerSetNameBytes;
+    private final int[] markerSetMarkerCounts;
+
+    // rigid bodies, sorted by id
+    private final int[] rigidBodyIDs;
+    private final String[] rigidBodyNames;
+    private final int[] rigidBodyParentIDs;
+    private final int[] rigidBodyMarkerCounts;
+
+    private ModelDefinitions(String[] markerSetNames, byte[][] markerSetNameBytes,
+            int[] markerSetMarkerCounts, int[] rigidBodyIDs, String[] rigidBodyNames,
+            int[] rigidBodyParentIDs, int[] rigidBodyMarkerCounts) {
+        this.markerSetNames = markerSetNames;
+        this.markerSetNameBytes = markerSetNameBytes;
+        this.markerSetMarkerCounts = markerSetMarkerCounts;
+        this.rigidBodyIDs = rigidBodyIDs;
+        this.rigidBodyNames = rigidBodyNames;
+        this.rigidBodyParentIDs = rigidBodyParentIDs;
+        this.rigidBodyMarkerCounts = rigidBodyMarkerCounts;
+    }
+
+    /**
+     * Reads a model definitions message, positioned after its packet size.
+     *
+     * NatNet 4.1 and higher (Motive 3.1 and higher) prefix each
+     * description with its size, so descriptions of any type can be
+     * skipped. Older versions don't, so reading stops at the first
+     * description that isn't a marker set, rigid body or skeleton (the
+     * definitions read until then are kept).
+     * @param buffer the message
+     * @param version the version of Motive that sent it
+     * @param natNetMajor the major NatNet version from Motive's server
+     * information, or 0 if it hasn't been received
+     * @param natNetMinor the minor NatNet version
+     * @param bodyIDOffset added to every rigid body id
+     * @return the definitions
+     */
+    static ModelDefinitions parse(ByteBuffer buffer, MotiveVersion version, int natNetMajor,
+            int natNetMinor, int bodyIDOffset) {
+        final boolean sized = version == MotiveVersion.V3
+                && (natNetMajor > 4 || (natNetMajor == 4 && natNetMinor >= 1));
+        final int count = buffer.getInt();
+        final Builder builder = new Builder();
+        for (int description = 0; description < count; description++) {
+            final int type = buffer.getInt();
+            if (sized) {
+                final int size = buffer.getInt();
+                final int end = buffer.position() + size;
+                if (size < 0 || end > buffer.limit()) {
+                    break;
+                }
+                if (type == TYPE_MARKER_SET) {
+                    builder.readMarkerSet(buffer);
+                } else if (type == TYPE_RIGID_BODY) {
+                    builder.readRigidBody(buffer, version, natNetMajor, true, bodyIDOffset, true);
+                }
+                buffer.position(end);
+            } else if (type == TYPE_MARKER_SET) {
+                builder.readMarkerSet(buffer);
+            } else if (type == TYPE_RIGID_BODY) {
+                builder.readRigidBody(buffer, version, natNetMajor, false, bodyIDOffset, true);
+            } else if (type == TYPE_SKELETON) {
+                // skeleton bones aren't streamed as rigid bodies; read past them
+                readString(buffer);
+                buffer.getInt();
+                final int boneCount = buffer.getInt();
+                for (int bone = 0; bone < boneCount; bone++) {
+                    builder.readRigidBody(buffer, version, natNetMajor, false, bodyIDOffset,
+                            false);
+                }
+            } else {
+                break;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads a NUL-terminated string, leaving the buffer after the NUL
+     * @return the string's bytes, including the NUL
+     */
+    private static byte[] readString(ByteBuffer buffer) {
+        final int start = buffer.position();
+        while (buffer.get() != 0) {
+        }
+        final byte[] bytes = new byte[buffer.position() - start];
+        buffer.position(start);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String decode(byte[] nameBytes) {
+        return new String(nameBytes, 0, nameBytes.length - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Collects descriptions as they are read
+     */
+    private static class Builder {
+        private int markerSetCount;
+        private byte[][] markerSetNameBytes = new byte[8][];
+        private int[] markerSetMarkerCounts = new int[8];
+        private int rigidBodyCount;
+        private int[] rigidBodyIDs = new int[8];
+        private String[] rigidBodyNames = new String[8];
+        private int[] rigidBodyParentIDs = new int[8];
+        private int[] rigidBodyMarkerCounts = new int[8];
+
+        void readMarkerSet(ByteBuffer buffer) {
+            final byte[] name = readString(buffer);
+            final int markerCount = buffer.getInt();
+            // marker names (not kept)
+            for (int marker = 0; marker < markerCount; marker++) {
+                while (buffer.get() != 0) {
+                }
+            }
+            if (markerSetCount == markerSetNameBytes.length) {
+                markerSetNameBytes = Arrays.copyOf(markerSetNameBytes, markerSetCount * 2);
+                markerSetMarkerCounts = Arrays.copyOf(markerSetMarkerCounts, markerSetCount * 2);
+            }
+            markerSetNameBytes[markerSetCount] = name;
+            markerSetMarkerCounts[markerSetCount] = markerCount;
+            markerSetCount++;
+        }
+
+        /**
+         * Reads a rigid body description up to its marker count; the rest
+         * is read only if the description isn't sized (otherwise the
+         * caller skips it by size)
+         */
+        void readRigidBody(ByteBuffer buffer, MotiveVersion version, int natNetMajor,
+                boolean sized, int bodyIDOffset, boolean keep) {
+            final byte[] name = readString(buffer);
+            final int id = buffer.getInt() + bodyIDOffset;
+            // -1 when the body has no parent
+            int parentID = buffer.getInt();
+            if (parentID >= 0) {
+                parentID += bodyIDOffset;
+            }
+            // offset from the parent
+            buffer.getFloat();
+            buffer.getFloat();
+            buffer.getFloat();
+            int markerCount = 0;
+            if (version != MotiveVersion.V1_10_2) {
+                markerCount = buffer.getInt();
+                if (!sized) {
+                    // marker offsets, then marker labels
+                    final int size = markerCount * (12 + 4);
+                    if (size < 0 || size > buffer.remaining()) {
+                        throw new BufferUnderflowException();
+                    }
+                    buffer.position(buffer.position() + size);
+                    if (version == MotiveVersion.V3 && natNetMajor >= 4) {
+                        // marker names (NatNet 4.0)
+                        for (int marker = 0; marker < markerCount; marker++) {
+                            while (buffer.get() != 0) {
+                            }
+                        }
+                    }
+                }
+            }
+            if (!keep) {
+                return;
+            }
+            if (rigidBodyCount == rigidBodyIDs.length) {
+                rigidBodyIDs = Arrays.copyOf(rigidBodyIDs, rigidBodyCount * 2);
+                rigidBodyNames = Arrays.copyOf(rigidBodyNames, rigidBodyCount * 2);
+                rigidBodyParentIDs = Arrays.copyOf(rigidBodyParentIDs, rigidBodyCount * 2);
+                rigidBodyMarkerCounts = Arrays.copyOf(rigidBodyMarkerCounts, rigidBodyCount * 2);
+            }
+            rigidBodyIDs[rigidBodyCount] = id;
+            rigidBodyNames[rigidBodyCount] = decode(name);
+            rigidBodyParentIDs[rigidBodyCount] = parentID;
+            rigidBodyMarkerCounts[rigidBodyCount] = markerCount;
+            rigidBodyCount++;
+        }
+
+        ModelDefinitions build() {
+            final String[] markerSetNames = new String[markerSetCount];
+            for (int i = 0; i < markerSetCount; i++) {
+                markerSetNames[i] = decode(markerSetNameBytes[i]);
+            }
+            // sort the rigid bodies by id, so they can be found by binary search
+            final Integer[] order = new Integer[rigidBodyCount];
+            for (int i = 0; i < rigidBodyCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(rigidBodyIDs[a], rigidBodyIDs[b]));
+            final int[] ids = new int[rigidBodyCount];
+            final String[] names = new String[rigidBodyCount];
+            final int[] parentIDs = new int[rigidBodyCount];
+            final int[] markerCounts = new int[rigidBodyCount];
+            for (int i = 0; i < rigidBodyCount; i++) {
+                ids[i] = rigidBodyIDs[order[i]];
+                names[i] = rigidBodyNames[order[i]];
+                parentIDs[i] = rigidBodyParentIDs[order[i]];
+                markerCounts[i] = rigidBodyMarkerCounts[order[i]];
+            }
+            return new ModelDefinitions(markerSetNames,
+                    Arrays.copyOf(markerSetNameBytes, markerSetCount),
+                    Arrays.copyOf(markerSetMarkerCounts, markerSetCount),
+                    ids, names, parentIDs, markerCounts);
+        }
+    }
+
+    /**
+     * @return the number of marker sets, in the order they appear in frames
+     */
+    public int getMarkerSetCount() {
+        return markerSetNames.length;
+    }
+
+    public String getMarkerSetName(int index) {
+        return markerSetNames[index];
+    }
+
+    public int getMarkerSetMarkerCount(int index) {
+        return markerSetMarkerCounts[index];
+    }
+
+    /**
+     * Checks whether a frame's marker set name, at the buffer's position,
+     * is the cached name of a marker set. The check compares the whole
+     * name at once instead of scanning for its end.
+     * @return the length of the name, including the NUL, or -1 if the
+     * name doesn't match
+     */
+    int matchMarkerSetName(int index, ByteBuffer buffer) {
+        final byte[] name = markerSetNameBytes[index];
+        final int start = buffer.position();
+        if (!buffer.hasArray() || name.length > buffer.remaining()) {
+            return -1;
+        }
+        final int offset = buffer.arrayOffset() + start;
+        return Arrays.equals(buffer.array(), offset, offset + name.length, name, 0, name.length)
+                ? name.length : -1;
+    }
+
+    /**
+     * @return the number of rigid bodies
+     */
+    public int getRigidBodyCount() {
+        return rigidBodyIDs.length;
+    }
+
+    /**
+     * @param index a rigid body's index, from 0 to getRigidBodyCount() - 1
+     * @return the id of the rigid body, in increasing order of index
+     */
+    public int getRigidBodyID(int index) {
+        return rigidBodyIDs[index];
+    }
+
+    /**
+     * @param id a rigid body id
+     * @return the body's name, or null if there is no such body
+     */
+    public String getRigidBodyName(int id) {
+        final int index = Arrays.binarySearch(rigidBodyIDs, id);
+        return index < 0 ? null : rigidBodyNames[index];
+    }
+
+    /**
+     * @param id a rigid body id
+     * @return the id of the body's parent (-1 if none), or -1 if there is
+     * no such body
+     */
+    public int getRigidBodyParentID(int id) {
+        final int index = Arrays.binarySearch(rigidBodyIDs, id);
+        return index < 0 ? -1 : rigidBodyParentIDs[index];
+    }
+
+    /**
+     * @param id a rigid body id
+     * @return the number of markers making up the body (0 if Motive
+     * doesn't report it), or -1 if there is no such body
+     */
+    public int getRigidBodyMarkerCount(int id) {
+        final int index = Arrays.binarySearch(rigidBodyIDs, id);
+        return index < 0 ? -1 : rigidBodyMarkerCounts[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(markerSetNames.length).append(" marker sets, ")
+                .append(rigidBodyIDs.length).append(" rigid bodies");
+        for (int i = 0; i < rigidBodyIDs.length; i++) {
+            builder.append(i == 0 ? ": " : ", ").append(rigidBodyIDs[i]).append('=')
+                    .append(rigidBodyNames[i]);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,9 @@
+package motive;
+
+/**
+ * A listener interface that allows listening for Motive's model
+ * definitions, received on connection and whenever the models change
+ */
+public interface ModelDefinitionsListener {
+    void modelDefinitionsUpdated(ModelDefinitions definitions);
+}
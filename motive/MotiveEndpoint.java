@@ -0,0 +1,204 @@
+package motive;
+
+import java.util.Properties;
+
+/**
+ * Structure describing a Motive server (one tracking room, or arena)
+ * and how a CommandStreamManager talks to it.
+ */
+public class MotiveEndpoint {
+
+    // Motive's default command port
+    public static final int DEFAULT_COMMAND_PORT = 1510;
+    // The default port this application communicates with Motive from
+    public static final int DEFAULT_LOCAL_PORT = 1512;
+    // the number of body ids shared by every arena; the game keeps state
+    // for ids below this, so each arena's ids must fit within it
+    public static final int MAX_BODY_IDS = 256;
+
+    private final String name;
+    private final String host;
+    private final int commandPort;
+    private final int localPort;
+    private final MotiveVersion version;
+
+    // added to every body id received from this endpoint, so that bodies
+    // from several arenas can share one set of listeners without clashing.
+    // The arena's bodies take the ids from the offset up to (but not
+    // including) offset + count.
+    private int bodyIDOffset;
+    private int bodyIDCount = MAX_BODY_IDS;
+
+    // the room this endpoint tracks, in room coordinates
+    private double roomXLowerBound = -1.0;
+    private double roomYLowerBound = -1.0;
+    private double roomWidth = 2.0;
+    private double roomLength = 2.0;
+
+    /**
+     * @param name a name identifying the arena, used in logs and metrics
+     * @param host the host Motive runs on
+     * @param commandPort Motive's command port
+     * @param localPort the port to communicate with Motive from
+     * @param version the version of Motive running on the host
+     */
+    public MotiveEndpoint(String name, String host, int commandPort, int localPort,
+            MotiveVersion version) {
+        this.name = name;
+        this.host = host;
+        this.commandPort = commandPort;
+        this.localPort = localPort;
+        this.version = version;
+    }
+
+    /**
+     * @return an endpoint for Motive 2.1.1 running on this machine
+     * with default ports (this application's original configuration)
+     */
+    public static MotiveEndpoint localDefault() {
+        return new MotiveEndpoint("local", "localhost", DEFAULT_COMMAND_PORT,
+                DEFAULT_LOCAL_PORT, MotiveVersion.V2_1_1);
+    }
+
+    /**
+     * Reads an endpoint from properties named after the arena, for example:
+     * 
+     *   roomA.host=10.0.0.5
+     *   roomA.commandPort=1510
+     *   roomA.localPort=1512
+     *   roomA.version=3
+     *   roomA.bodyIDOffset=100
+     *   roomA.bodyIDCount=50
+     *   roomA.room=-1.0,-1.0,2.0,2.0
+     * 
+     * Every property except host is optional. The body ids default to
+     * every id from the offset up to MAX_BODY_IDS.
+     * @param name the arena's name
+     * @param properties the properties to read from
+     * @return the endpoint described by the properties
+     * @throws IllegalArgumentException if a property is missing or invalid
+     */
+    public static MotiveEndpoint fromProperties(String name, Properties properties) {
+        String host = properties.getProperty(name + ".host");
+        if (host == null) {
+            throw new IllegalArgumentException("Missing " + name + ".host");
+        }
+        try {
+            MotiveEndpoint endpoint = new MotiveEndpoint(name, host,
+                    Integer.parseInt(properties.getProperty(name + ".commandPort",
+                            Integer.toString(DEFAULT_COMMAND_PORT))),
+                    Integer.parseInt(properties.getProperty(name + ".localPort",
+                            Integer.toString(DEFAULT_LOCAL_PORT))),
+                    MotiveVersion.parse(properties.getProperty(name + ".version",
+                            MotiveVersion.V2_1_1.toString())));
+            final int offset = Integer.parseInt(
+                    properties.getProperty(name + ".bodyIDOffset", "0"));
+            if (offset < 0 || offset >= MAX_BODY_IDS) {
+                throw new IllegalArgumentException(name + ".bodyIDOffset must be between 0 and "
+                        + (MAX_BODY_IDS - 1));
+            }
+            final int count = Integer.parseInt(properties.getProperty(name + ".bodyIDCount",
+                    Integer.toString(MAX_BODY_IDS - offset)));
+            if (count <= 0 || offset + count > MAX_BODY_IDS) {
+                throw new IllegalArgumentException(name + ".bodyIDCount must be between 1 and "
+                        + (MAX_BODY_IDS - offset) + " for an offset of " + offset);
+            }
+            endpoint.setBodyIDs(offset, count);
+            String room = properties.getProperty(name + ".room");
+            if (room != null) {
+                String[] values = room.split(",");
+                if (values.length != 4) {
+                    throw new IllegalArgumentException(name
+                            + ".room must be xLowerBound,yLowerBound,width,length");
+                }
+                endpoint.setRoom(Double.parseDouble(values[0].trim()),
+                        Double.parseDouble(values[1].trim()),
+                        Double.parseDouble(values[2].trim()),
+                        Double.parseDouble(values[3].trim()));
+            }
+            return endpoint;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in arena " + name
+                    + ": " + e.getMessage());
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getCommandPort() {
+        return commandPort;
+    }
+
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    public MotiveVersion getVersion() {
+        return version;
+    }
+
+    public int getBodyIDOffset() {
+        return bodyIDOffset;
+    }
+
+    public int getBodyIDCount() {
+        return bodyIDCount;
+    }
+
+    /**
+     * Sets the ids this endpoint's bodies take
+     * @param offset the offset added to every body id Motive sends
+     * @param count the number of ids, so Motive's ids should be below it
+     * @throws IllegalArgumentException if the ids don't fit below MAX_BODY_IDS
+     */
+    public void setBodyIDs(int offset, int count) {
+        if (offset < 0 || count <= 0 || offset + count > MAX_BODY_IDS) {
+            throw new IllegalArgumentException("Body ids " + offset + " to "
+                    + (offset + count - 1) + " don't fit below " + MAX_BODY_IDS);
+        }
+        bodyIDOffset = offset;
+        bodyIDCount = count;
+    }
+
+    /**
+     * Sets the room this endpoint tracks
+     * @param xLowerBound the left-most X coordinate of the room
+     * @param yLowerBound the bottom-most Y coordinate of the room
+     * @param width the width of the room
+     * @param length the length of the room
+     */
+    public void setRoom(double xLowerBound, double yLowerBound, double width, double length) {
+        roomXLowerBound = xLowerBound;
+        roomYLowerBound = yLowerBound;
+        roomWidth = width;
+        roomLength = length;
+    }
+
+    public double getRoomXLowerBound() {
+        return roomXLowerBound;
+    }
+
+    public double getRoomYLowerBound() {
+        return roomYLowerBound;
+    }
+
+    public double getRoomWidth() {
+        return roomWidth;
+    }
+
+    public double getRoomLength() {
+        return roomLength;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + host + ":" + commandPort + ", Motive " + version + ")";
+    }
+
+}
@@ -0,0 +1,347 @@
+package motive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class receives packets for any number of CommandStreamManagers,
+ * each talking to its own Motive server, on a single thread.
+ *
+ * Each manager gets a UDP channel bound to its endpoint's local port. All
+ * of the channels are registered with one Selector, so a single receive
+ * loop serves every arena, and the same loop sends each server its
+ * connect and keep alive messages, and requests its model definitions
+ * when its manager wants them (retrying with each keep alive until they
+ * arrive). A manager whose channel can't be opened, or fails while
+ * receiving, is closed and reported; the other arenas keep receiving.
+ *
+ * By default the loop blocks in select() until a packet arrives. For the
+ * lowest latency, busy polling can be turned on: the loop then spins on
+ * selectNow(), trading a CPU core for not having to be woken by the OS.
+ * With a finite spin time, the loop spins only for that long after each
+ * packet before blocking again, so it only burns CPU while frames are
+ * arriving. The receive thread can also be pinned to a set of CPUs (on
+ * Linux, using taskset), and the socket receive buffer enlarged so bursts
+ * aren't dropped while the thread is busy.
+ */
+public class MotiveReceiver implements Runnable {
+
+    // Message type sent to Motive on initial connection
+    private static final short MESSAGE_CONNECT = 0;
+    // Message type sent to Motive that lets it know we're still listening
+    private static final short MESSAGE_KEEP_ALIVE = 10;
+
+    // Time between keep alive messages, in milliseconds
+    private static final long KEEP_ALIVE_WAIT_PERIOD = 1000; // 1000 ms = 1 second
+
+    // spin time meaning "always spin"
+    public static final long SPIN_FOREVER = Long.MAX_VALUE;
+
+    private final List<CommandStreamManager> managers;
+    // each manager's channel, or null if it couldn't be opened or failed
+    private final List<DatagramChannel> channels;
+    private final List<InetSocketAddress> serverAddresses;
+
+    // how long to busy poll after each packet, in nanoseconds (0 never spins)
+    private long spinTime;
+    // the CPUs to pin the receive thread to, in taskset's list format, or null
+    private String cpuAffinity;
+    // the requested socket receive buffer size, in bytes, or 0 for the default
+    private int receiveBufferSize;
+
+    private volatile boolean running = true;
+    private volatile Selector selector;
+
+    /**
+     * @param managers the managers to receive packets for
+     */
+    public MotiveReceiver(List<CommandStreamManager> managers) {
+        this.managers = new ArrayList<>(managers);
+        channels = new ArrayList<>();
+        serverAddresses = new ArrayList<>();
+    }
+
+    /**
+     * Turns on busy polling. Must be called before the receiver is run.
+     * @param spinTime how long to keep spinning after each packet before
+     * blocking, in nanoseconds; SPIN_FOREVER never blocks, and 0 turns
+     * busy polling off
+     */
+    public void setSpinTime(long spinTime) {
+        if (spinTime < 0) {
+            throw new IllegalArgumentException("Spin time must not be negative");
+        }
+        this.spinTime = spinTime;
+    }
+
+    /**
+     * Asks for the receive thread to be pinned to a set of CPUs. This is
+     * only a hint: if pinning fails (e.g. taskset isn't installed, or the
+     * OS isn't Linux) the receiver runs unpinned. Must be called before
+     * the receiver is run.
+     * @param cpus the CPUs, in taskset's list format, e.g. "3" or "2,3"
+     */
+    public void setCpuAffinity(String cpus) {
+        this.cpuAffinity = cpus;
+    }
+
+    /**
+     * Sets the size of each channel's socket receive buffer. The OS may
+     * cap the size (net.core.rmem_max on Linux). Must be called before
+     * the receiver is run.
+     * @param bytes the buffer size, in bytes
+     */
+    public void setReceiveBufferSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Receive buffer size must be positive");
+        }
+        this.receiveBufferSize = bytes;
+    }
+
+    /**
+     * Stops the receive loop and closes the channels
+     */
+    public void stop() {
+        running = false;
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    public List<CommandStreamManager> getManagers() {
+        return managers;
+    }
+
+    /**
+     * @return the sum of every manager's metrics, as of this call
+     */
+    public StreamMetrics getAggregateMetrics() {
+        StreamMetrics total = new StreamMetrics();
+        for (CommandStreamManager manager : managers) {
+            total.add(manager.getMetrics());
+        }
+        return total;
+    }
+
+    /**
+     * Sends a message consisting of only a message type (and an empty
+     * payload) to a manager's Motive server
+     */
+    private void sendMessage(int index, short messageType, int length,
+            ByteBuffer buffer) {
+        buffer.clear();
+        buffer.putShort(messageType);
+        while (buffer.position() < length) {
+            buffer.put((byte) 0);
+        }
+        buffer.flip();
+        final DatagramChannel channel = channels.get(index);
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.send(buffer, serverAddresses.get(index));
+        } catch (IOException e) {
+            System.out.println("Error sending to " + managers.get(index).getEndpoint());
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        if (cpuAffinity != null) {
+            pinCurrentThread(cpuAffinity);
+        }
+        try (Selector selector = Selector.open()) {
+            this.selector = selector;
+            // create a 64K byte buffer, shared by every channel
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int i = 0; i < managers.size(); i++) {
+                MotiveEndpoint endpoint = managers.get(i).getEndpoint();
+                serverAddresses.add(new InetSocketAddress(endpoint.getHost(),
+                        endpoint.getCommandPort()));
+                channels.add(openChannel(selector, managers.get(i)));
+                // These two zero bytes indicate the MESSAGE_CONNECT signal,
+                // causing Motive to begin sending us frame data
+                sendMessage(i, MESSAGE_CONNECT, 2, buffer);
+                requestModelDefinitions(managers.get(i), buffer);
+            }
+
+            final long keepAlivePeriod = KEEP_ALIVE_WAIT_PERIOD * 1_000_000L;
+            long nextKeepAlive = System.nanoTime() + keepAlivePeriod;
+            long lastPacket = System.nanoTime();
+            // Continuously receive packets from every Motive server
+            while (running) {
+                final long now = System.nanoTime();
+                final long wait = nextKeepAlive - now;
+                if (wait > 0) {
+                    if (spinTime > 0 && now - lastPacket < spinTime) {
+                        // busy poll: check for packets without blocking
+                        if (selector.selectNow() == 0) {
+                            Thread.onSpinWait();
+                        }
+                    } else {
+                        // Block thread until a packet is received or a
+                        // keep alive is due
+                        selector.select(Math.max(1, wait / 1_000_000));
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    CommandStreamManager manager = (CommandStreamManager) key.attachment();
+                    try {
+                        if (receive((DatagramChannel) key.channel(), manager, buffer)) {
+                            lastPacket = System.nanoTime();
+                        }
+                    } catch (IOException e) {
+                        // only this arena stops receiving
+                        closeChannel(managers.indexOf(manager), e);
+                        continue;
+                    }
+                    requestModelDefinitions(manager, buffer);
+                }
+                if (System.nanoTime() - nextKeepAlive >= 0) {
+                    // maintain the connection to each Motive server
+                    for (int i = 0; i < managers.size(); i++) {
+                        sendMessage(i, MESSAGE_KEEP_ALIVE, 5, buffer);
+                        if (!managers.get(i).hasModelDefinitions()) {
+                            // the request (or its reply) may have been lost
+                            sendMessage(i, CommandStreamManager.MESSAGE_REQUEST_MODEL_DEF, 4, buffer);
+                        }
+                    }
+                    nextKeepAlive = System.nanoTime() + keepAlivePeriod;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (DatagramChannel channel : channels) {
+                if (channel == null) {
+                    continue;
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * Opens and binds a manager's channel and registers it with the
+     * selector, printing a message if that isn't possible
+     * @return the channel, or null if it couldn't be opened
+     */
+    private DatagramChannel openChannel(Selector selector, CommandStreamManager manager) {
+        MotiveEndpoint endpoint = manager.getEndpoint();
+        DatagramChannel channel = null;
+        try {
+            channel = DatagramChannel.open();
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+                int actual = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+                if (actual < receiveBufferSize) {
+                    System.out.println("Receive buffer for " + endpoint + " capped at "
+                            + actual + " bytes");
+                }
+            }
+            channel.bind(new InetSocketAddress(endpoint.getLocalPort()));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, manager);
+            return channel;
+        } catch (IOException e) {
+            System.out.println("Could not receive from " + endpoint + " on local port "
+                    + endpoint.getLocalPort() + ": " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeException) {}
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Closes a manager's channel after it failed, so the other managers
+     * keep receiving
+     */
+    private void closeChannel(int index, IOException cause) {
+        System.out.println("Stopped receiving from " + managers.get(index).getEndpoint()
+                + ": " + cause.getMessage());
+        try {
+            channels.get(index).close();
+        } catch (IOException e) {}
+        channels.set(index, null);
+    }
+
+    /**
+     * Requests a manager's model definitions from its Motive server, if
+     * the manager wants them
+     */
+    private void requestModelDefinitions(CommandStreamManager manager, ByteBuffer buffer) {
+        if (manager.takeModelDefinitionsRequest()) {
+            sendMessage(managers.indexOf(manager), CommandStreamManager.MESSAGE_REQUEST_MODEL_DEF,
+                    4, buffer);
+        }
+    }
+
+    /**
+     * Pins the calling thread to a set of CPUs using taskset, printing a
+     * message (and carrying on unpinned) if that isn't possible
+     */
+    private static void pinCurrentThread(String cpus) {
+        try {
+            // on Linux, /proc/thread-self links to /proc/<pid>/task/<thread id>
+            Path task = Paths.get("/proc/thread-self").toRealPath();
+            String threadID = task.getFileName().toString();
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", cpus, threadID)
+                    .redirectErrorStream(true).start();
+            try (InputStream output = taskset.getInputStream()) {
+                output.readAllBytes();
+            }
+            if (taskset.waitFor() != 0) {
+                System.out.println("Could not pin the receive thread to CPUs " + cpus);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not pin the receive thread to CPUs " + cpus
+                    + " (" + e.getMessage() + ")");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads every packet waiting on a channel and passes each to its manager
+     * @return true if any packet was read
+     */
+    private boolean receive(DatagramChannel channel, CommandStreamManager manager,
+            ByteBuffer buffer) throws IOException {
+        boolean received = false;
+        while (true) {
+            buffer.clear();
+            if (channel.receive(buffer) == null) {
+                return received;
+            }
+            received = true;
+            long receiveTime = System.nanoTime();
+            buffer.flip();
+            manager.processPacket(buffer, receiveTime);
+        }
+    }
+
+}
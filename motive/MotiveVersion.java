@@ -0,0 +1,44 @@
+package motive;
+
+/**
+ * The versions of Motive whose frame data CommandStreamManager can parse.
+ * The layout of rigid bodies within a frame differs between versions.
+ */
+public enum MotiveVersion {
+    V1_10_2("1.10.2"),
+    V2_1_1("2.1.1"),
+    V3("3");
+
+    private final String name;
+
+    private MotiveVersion(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Finds the version matching a version string, such as "2.1.1" or "3".
+     * Any version string starting with 3 or higher is parsed as V3.
+     * @param version the version string
+     * @return the matching version
+     * @throws IllegalArgumentException if the version isn't supported
+     */
+    public static MotiveVersion parse(String version) {
+        for (MotiveVersion v : values()) {
+            if (v.name.equals(version)) {
+                return v;
+            }
+        }
+        try {
+            int major = Integer.parseInt(version.split("\\.")[0]);
+            if (major >= 3) {
+                return V3;
+            }
+        } catch (NumberFormatException e) {}
+        throw new IllegalArgumentException("Unsupported Motive version: " + version);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -7,4 +7,31 @@ package motive;
  */
 public interface RigidBodyUpdateListener {
     void update(int id, float x, float y, float z);
+
+    /**
+     * Called with a rigid body's location and orientation. Listeners that
+     * need the orientation override this method; by default the orientation
+     * is ignored and update(id, x, y, z) is called.
+     * @param qx the X component of the body's orientation quaternion
+     * @param qy the Y component of the body's orientation quaternion
+     * @param qz the Z component of the body's orientation quaternion
+     * @param qw the W (scalar) component of the body's orientation quaternion
+     */
+    default void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw) {
+        update(id, x, y, z);
+    }
+
+    /**
+     * Called with a rigid body's location and orientation, and the time of
+     * the frame it was tracked in. Listeners that timestamp samples
+     * override this method; by default the time is ignored and
+     * update(id, x, y, z, qx, qy, qz, qw) is called.
+     * @param time the frame's time, on the System.nanoTime() clock (see
+     * CommandStreamManager)
+     */
+    default void update(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw, long time) {
+        update(id, x, y, z, qx, qy, qz, qw);
+    }
 }
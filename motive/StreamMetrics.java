@@ -0,0 +1,237 @@
+package motive;
+
+/**
+ * Counters describing the packets a CommandStreamManager has received.
+ * 
+ * For Motive 3 or higher, which sends timing information with each frame,
+ * this also keeps histograms of where latency comes from:
+ * - Motive latency: from the cameras' mid-exposure to Motive transmitting
+ *   the frame (camera transfer plus Motive's solve)
+ * - transit latency: from Motive transmitting the frame to this application
+ *   receiving it (network and our receive path)
+ * 
+ * Motive's clock and ours aren't synchronized, so transit latency is
+ * measured relative to the smallest transmit-to-receive difference seen
+ * in the last two CLOCK_OFFSET_WINDOW periods. It shows how much later
+ * than the best case a frame arrived, and excludes any constant part of
+ * the transit time. Using recent windows lets the estimate follow drift
+ * between the two clocks.
+ * 
+ * Counters are written only by the thread receiving packets and may be
+ * read from any thread.
+ */
+public class StreamMetrics {
+
+    // the period the clock offset estimate is renewed over, in nanoseconds
+    private static final long CLOCK_OFFSET_WINDOW = 10_000_000_000L; // 10 s
+
+    private volatile long packetsReceived;
+    private volatile long bytesReceived;
+    private volatile long framesReceived;
+    private volatile long framesDropped;
+    private volatile long parseErrors;
+    private volatile long trailerErrors;
+    private volatile long bodiesOutOfRange;
+    private volatile long unknownMessages;
+
+    private final LatencyHistogram motiveLatency = new LatencyHistogram();
+    private final LatencyHistogram transitLatency = new LatencyHistogram();
+
+    // the smallest (receive time - transmit time) seen in the current and
+    // previous windows, in nanoseconds
+    private long windowMinOffset = Long.MAX_VALUE;
+    private long previousWindowMinOffset = Long.MAX_VALUE;
+    private long windowStart;
+
+    // the number of the last frame received, used to detect dropped frames
+    private int lastFrameNumber;
+    private boolean hasLastFrame;
+
+    void packetReceived(int bytes) {
+        packetsReceived++;
+        bytesReceived += bytes;
+    }
+
+    /**
+     * Records a frame, counting any frames skipped since the last one
+     * as dropped
+     * @param frameNumber the frame's number
+     */
+    void frameReceived(int frameNumber) {
+        framesReceived++;
+        if (hasLastFrame) {
+            int gap = frameNumber - lastFrameNumber - 1;
+            if (gap > 0) {
+                framesDropped += gap;
+            }
+        }
+        lastFrameNumber = frameNumber;
+        hasLastFrame = true;
+    }
+
+    /**
+     * Records the timing information sent with a frame
+     * @param receiveTime the time the frame was received, from System.nanoTime()
+     * @param cameraMidExposure the time of the cameras' mid-exposure, in Motive clock ticks
+     * @param transmit the time Motive transmitted the frame, in Motive clock ticks
+     * @param clockFrequency Motive's clock ticks per second
+     */
+    void frameTiming(long receiveTime, long cameraMidExposure, long transmit,
+            long clockFrequency) {
+        if (clockFrequency <= 0) {
+            return;
+        }
+        motiveLatency.record(ticksToNanos(transmit - cameraMidExposure, clockFrequency));
+
+        final long offset = receiveTime - ticksToNanos(transmit, clockFrequency);
+        if (receiveTime - windowStart >= CLOCK_OFFSET_WINDOW) {
+            previousWindowMinOffset = windowMinOffset;
+            windowMinOffset = Long.MAX_VALUE;
+            windowStart = receiveTime;
+        }
+        if (offset < windowMinOffset) {
+            windowMinOffset = offset;
+        }
+        transitLatency.record(offset - Math.min(windowMinOffset, previousWindowMinOffset));
+    }
+
+    /**
+     * Maps a time on Motive's clock onto the System.nanoTime() clock, using
+     * the smallest transmit-to-receive difference seen recently (the same
+     * estimate transit latency is measured against). Only valid once
+     * frameTiming has been called.
+     * @param ticks a time in Motive clock ticks
+     * @param clockFrequency Motive's clock ticks per second
+     * @return the time on the System.nanoTime() clock, in nanoseconds
+     */
+    long toLocalTime(long ticks, long clockFrequency) {
+        return ticksToNanos(ticks, clockFrequency)
+                + Math.min(windowMinOffset, previousWindowMinOffset);
+    }
+
+    private static long ticksToNanos(long ticks, long clockFrequency) {
+        // split to avoid overflowing when multiplying large tick counts
+        return ticks / clockFrequency * 1_000_000_000L
+                + ticks % clockFrequency * 1_000_000_000L / clockFrequency;
+    }
+
+    void parseError() {
+        parseErrors++;
+    }
+
+    /**
+     * Records a frame whose rigid bodies were read, but whose data after
+     * them (skeletons, markers, analog data or timing) couldn't be
+     */
+    void trailerError() {
+        trailerErrors++;
+    }
+
+    /**
+     * Records a rigid body whose id is outside its arena's body ids
+     */
+    void bodyOutOfRange() {
+        bodiesOutOfRange++;
+    }
+
+    void unknownMessage() {
+        unknownMessages++;
+    }
+
+    /**
+     * Adds another set of metrics to this one, used to aggregate
+     * metrics across arenas
+     * @param other the metrics to add
+     */
+    void add(StreamMetrics other) {
+        packetsReceived += other.packetsReceived;
+        bytesReceived += other.bytesReceived;
+        framesReceived += other.framesReceived;
+        framesDropped += other.framesDropped;
+        parseErrors += other.parseErrors;
+        trailerErrors += other.trailerErrors;
+        bodiesOutOfRange += other.bodiesOutOfRange;
+        unknownMessages += other.unknownMessages;
+        motiveLatency.add(other.motiveLatency);
+        transitLatency.add(other.transitLatency);
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * @return the number of frames skipped in the sequence of frame numbers
+     */
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * @return the number of packets that were too short to parse
+     */
+    public long getParseErrors() {
+        return parseErrors;
+    }
+
+    /**
+     * @return the number of frames whose rigid bodies were delivered, but
+     * whose data after the rigid bodies was too short to parse
+     */
+    public long getTrailerErrors() {
+        return trailerErrors;
+    }
+
+    /**
+     * @return the number of rigid bodies received with ids outside their
+     * arena's body ids, which the game may not keep state for
+     */
+    public long getBodiesOutOfRange() {
+        return bodiesOutOfRange;
+    }
+
+    public long getUnknownMessages() {
+        return unknownMessages;
+    }
+
+    /**
+     * @return latencies from camera mid-exposure to Motive transmitting
+     * each frame (Motive 3 or higher only)
+     */
+    public LatencyHistogram getMotiveLatency() {
+        return motiveLatency;
+    }
+
+    /**
+     * @return latencies from Motive transmitting each frame to this
+     * application receiving it, above the best recent case (Motive 3
+     * or higher only)
+     */
+    public LatencyHistogram getTransitLatency() {
+        return transitLatency;
+    }
+
+    @Override
+    public String toString() {
+        String text = String.format("packets: %d  bytes: %d  frames: %d  dropped: %d  "
+                + "parse errors: %d  trailer errors: %d", packetsReceived, bytesReceived,
+                framesReceived, framesDropped, parseErrors, trailerErrors);
+        if (bodiesOutOfRange > 0) {
+            text += String.format("  bodies out of range: %d", bodiesOutOfRange);
+        }
+        if (motiveLatency.getCount() > 0) {
+            text += "  motive latency " + motiveLatency
+                    + "  transit latency " + transitLatency;
+        }
+        return text;
+    }
+
+}
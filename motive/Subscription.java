@@ -0,0 +1,210 @@
+package motive;
+
+/**
+ * A listener registered with a CommandStreamManager, along with the rate
+ * it wants frames delivered at.
+ *
+ * A subscription with a rate of 0 receives every frame. Otherwise frames
+ * are delivered at most once per period; the manager decides at the start
+ * of each frame whether the subscription is due, and only passes bodies
+ * to subscriptions that want them, so frames a DROP subscription would
+ * ignore cost it nothing per body, and a LATEST one only copying each
+ * body's pose.
+ * Under LATEST conflation, bodies updated in skipped frames but missing
+ * from the delivered frame are delivered with their latest pose at the
+ * end of that frame, before the subscriber's frame update.
+ *
+ * Only bodies with ids from 0 to MAX_CONFLATED_BODY_ID - 1 are conflated;
+ * other bodies are treated as under DROP.
+ *
+ * A rigid body subscription may be limited to some bodies by a
+ * BodyIDFilter; the manager then only passes it bodies the filter accepts.
+ */
+public class Subscription {
+
+    // the largest body id (exclusive) whose latest pose is kept
+    public static final int MAX_CONFLATED_BODY_ID = 256;
+
+    private final RigidBodyUpdateListener rigidBodyListener;
+    private final FrameUpdateListener frameListener;
+    private final BodyIDFilter filter;
+    private final double rate;
+    private final long period;
+    private final ConflationMode mode;
+
+    private boolean started;
+    private long nextDelivery;
+    // whether the frame being parsed is delivered to the subscriber
+    private boolean due;
+
+    private volatile long deliveredFrames;
+    private volatile long suppressedFrames;
+
+    // latest pose of each body updated in skipped frames, and the time of
+    // the frame it was tracked in (LATEST only)
+    private final float[] poses;
+    private final long[] poseTimes;
+    private final boolean[] pending;
+    private final int[] pendingIDs;
+    private int pendingCount;
+
+    Subscription(RigidBodyUpdateListener rigidBodyListener, FrameUpdateListener frameListener,
+            BodyIDFilter filter, double rate, ConflationMode mode) {
+        if (rate < 0 || Double.isNaN(rate) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("Delivery rate must be 0 or positive: " + rate);
+        }
+        this.rigidBodyListener = rigidBodyListener;
+        this.frameListener = frameListener;
+        this.filter = filter;
+        this.rate = rate;
+        this.period = rate == 0 ? 0 : (long) (1e9 / rate);
+        this.mode = mode;
+        if (rigidBodyListener != null && period > 0 && mode == ConflationMode.LATEST) {
+            poses = new float[MAX_CONFLATED_BODY_ID * 7];
+            poseTimes = new long[MAX_CONFLATED_BODY_ID];
+            pending = new boolean[MAX_CONFLATED_BODY_ID];
+            pendingIDs = new int[MAX_CONFLATED_BODY_ID];
+        } else {
+            poses = null;
+            poseTimes = null;
+            pending = null;
+            pendingIDs = null;
+        }
+    }
+
+    /**
+     * @return the rate frames are delivered at, in frames per second, or
+     * 0 if every frame is delivered
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the bodies the subscription receives
+     */
+    public BodyIDFilter getFilter() {
+        return filter;
+    }
+
+    public ConflationMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the number of frames delivered to the subscriber
+     */
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    /**
+     * @return the number of frames skipped because the subscriber wasn't due
+     */
+    public long getSuppressedFrames() {
+        return suppressedFrames;
+    }
+
+    /**
+     * Decides whether a frame is delivered to the subscriber
+     * @param time the time the frame was received, in nanoseconds
+     */
+    void beginFrame(long time) {
+        if (period == 0) {
+            due = true;
+        } else if (!started || time - nextDelivery >= 0) {
+            // stay on the period's cadence unless we've fallen a whole period behind
+            nextDelivery = started && time - nextDelivery < period ? nextDelivery + period
+                    : time + period;
+            started = true;
+            due = true;
+        } else {
+            due = false;
+        }
+        if (due) {
+            deliveredFrames++;
+        } else {
+            suppressedFrames++;
+        }
+    }
+
+    /**
+     * @return true if the current frame's rigid bodies should be passed to
+     * the subscription: it is due, or it keeps their poses for later
+     */
+    boolean wantsRigidBodies() {
+        return due || poses != null;
+    }
+
+    /**
+     * Passes a rigid body in the current frame to the subscriber, or keeps
+     * it for later if the subscriber isn't due
+     * @param time the frame's time, in nanoseconds
+     */
+    void rigidBodyUpdate(int id, float x, float y, float z,
+            float qx, float qy, float qz, float qw, long time) {
+        final boolean conflated = poses != null && id >= 0 && id < MAX_CONFLATED_BODY_ID;
+        if (due) {
+            if (conflated) {
+                // this frame's pose supersedes any kept pose
+                pending[id] = false;
+            }
+            rigidBodyListener.update(id, x, y, z, qx, qy, qz, qw, time);
+            return;
+        }
+        if (!conflated) {
+            return;
+        }
+        final int offset = id * 7;
+        poses[offset] = x;
+        poses[offset + 1] = y;
+        poses[offset + 2] = z;
+        poses[offset + 3] = qx;
+        poses[offset + 4] = qy;
+        poses[offset + 5] = qz;
+        poses[offset + 6] = qw;
+        poseTimes[id] = time;
+        if (!pending[id]) {
+            pending[id] = true;
+            pendingIDs[pendingCount++] = id;
+        }
+    }
+
+    /**
+     * Finishes the current frame, delivering kept poses (with the time of
+     * the frame each was tracked in) and the frame update if the
+     * subscriber is due
+     * @param time the frame's time, in nanoseconds
+     */
+    void endFrame(long time) {
+        if (!due) {
+            return;
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            final int id = pendingIDs[i];
+            if (!pending[id]) {
+                continue;
+            }
+            pending[id] = false;
+            final int offset = id * 7;
+            rigidBodyListener.update(id, poses[offset], poses[offset + 1], poses[offset + 2],
+                    poses[offset + 3], poses[offset + 4], poses[offset + 5], poses[offset + 6],
+                    poseTimes[id]);
+        }
+        pendingCount = 0;
+        if (frameListener != null) {
+            frameListener.update(time);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String cadence = rate == 0 ? "every frame" : String.format("%.1f Hz %s", rate, mode);
+        if (rigidBodyListener != null) {
+            cadence = filter + ", " + cadence;
+        }
+        return String.format("%s  delivered: %d  suppressed: %d", cadence,
+                deliveredFrames, suppressedFrames);
+    }
+
+}
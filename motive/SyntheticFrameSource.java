@@ -0,0 +1,289 @@
+package motive;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class stands in for a Motive server. It encodes frames of data
+ * containing rigid bodies driving patterns around the room and passes
+ * them to a CommandStreamManager's processPacket method, exercising the same
+ * parsing and listener code as packets received from Motive.
+ *
+ * It is used to run the game headless without a tracking system, and
+ * to load test it at rates far beyond what Motive produces.
+ */
+public class SyntheticFrameSource implements Runnable {
+
+    // Message type used by Motive for server information
+    private static final short MESSAGE_SERVER_INFO = 1;
+    // Message type used by Motive for model definitions
+    private static final short MESSAGE_MODEL_DEF = 5;
+    // Message type used by Motive for a frame of data
+    private static final short MESSAGE_FRAME_OF_DATA = 7;
+
+    // the exposure-to-transmit latency reported in Motive 3 frames, in nanoseconds
+    private static final long SYNTHETIC_MOTIVE_LATENCY = 4_000_000L; // 4 ms
+
+    // how far from the room's center a body drives, in meters
+    private static final float PATTERN_EXTENT = 0.9f;
+    // how far along its pattern a body moves each frame, in radians
+    private static final double RADIANS_PER_FRAME = 0.01;
+
+    private final CommandStreamManager manager;
+    private final MotiveVersion version;
+    private final int bodyCount;
+    private final int framesPerSecond;
+    // the NatNet version announced in the server information, which
+    // decides the layout of Motive 3 frames
+    private int natNetMajor = 3;
+    private int natNetMinor = 0;
+
+    private final ByteBuffer buffer;
+
+    private volatile long framesSent;
+
+    /**
+     * @param manager the manager that frames are passed to
+     * @param bodyCount the number of rigid bodies in each frame
+     * @param framesPerSecond the rate frames are produced at,
+     * or 0 to produce them as fast as possible
+     */
+    public SyntheticFrameSource(CommandStreamManager manager, int bodyCount,
+            int framesPerSecond) {
+        this.manager = manager;
+        version = manager.getEndpoint().getVersion();
+        this.bodyCount = bodyCount;
+        this.framesPerSecond = framesPerSecond;
+        buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Sets the NatNet version the source announces and encodes Motive 3
+     * packets with (3.0 by default). NatNet 4.1 and higher give the size
+     * of each frame section, and add assets and a precision timestamp.
+     * @param major the major version
+     * @param minor the minor version
+     */
+    public void setNatNetVersion(int major, int minor) {
+        natNetMajor = major;
+        natNetMinor = minor;
+    }
+
+    private boolean hasSizedSections() {
+        return natNetMajor > 4 || (natNetMajor == 4 && natNetMinor >= 1);
+    }
+
+    /**
+     * Encodes the server information announcing the source's NatNet
+     * version, without passing it to the manager
+     * @return the source's buffer, holding the server information
+     */
+    public ByteBuffer encodeServerInformation() {
+        encodeServerInfo();
+        return buffer;
+    }
+
+    /**
+     * @return the number of frames passed to the manager so far
+     */
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * Encodes a frame without passing it to the manager, so benchmarks can
+     * process the same packet repeatedly (rewinding it between calls)
+     * @param frameNumber the frame number to encode
+     * @return the source's buffer, holding the frame
+     */
+    public ByteBuffer encode(int frameNumber) {
+        encodeFrame(frameNumber, System.nanoTime());
+        return buffer;
+    }
+
+    /**
+     * Encodes a frame sent at a given time on Motive's clock, so that a
+     * benchmark can time frames at a nominal rate instead of as they are
+     * encoded
+     * @param frameNumber the frame number to encode
+     * @param time the time Motive sends the frame, in nanoseconds
+     * @return the source's buffer, holding the frame
+     */
+    public ByteBuffer encode(int frameNumber, long time) {
+        encodeFrame(frameNumber, time);
+        return buffer;
+    }
+
+    /**
+     * Encodes the given frame into the source's buffer, using the
+     * layout of the manager's Motive version
+     * @param frameNumber the frame number to encode
+     * @param now the time Motive sends the frame, in nanoseconds
+     */
+    private void encodeFrame(int frameNumber, long now) {
+        buffer.clear();
+        buffer.putShort(MESSAGE_FRAME_OF_DATA);
+        // packet size, filled in below
+        buffer.putShort((short) 0);
+        buffer.putInt(frameNumber);
+        final boolean sized = version == MotiveVersion.V3 && hasSizedSections();
+        // no marker sets or unlabeled markers
+        putEmptySection(sized);
+        putEmptySection(sized);
+        buffer.putInt(bodyCount);
+        int sizePosition = buffer.position();
+        if (sized) {
+            // rigid bodies' size, filled in below
+            buffer.putInt(0);
+        }
+        for (int body = 0; body < bodyCount; body++) {
+            double angle = frameNumber * RADIANS_PER_FRAME
+                    + body * 2 * Math.PI / bodyCount;
+            buffer.putInt(body);
+            // a Lissajous curve, which sweeps most of the room
+            buffer.putFloat(PATTERN_EXTENT * (float) Math.sin(3 * angle));
+            buffer.putFloat(PATTERN_EXTENT * (float) Math.sin(2 * angle));
+            buffer.putFloat(0.0f);
+            // face along the curve (a rotation around the Z axis)
+            double yaw = Math.atan2(2 * Math.cos(2 * angle), 3 * Math.cos(3 * angle));
+            buffer.putFloat(0.0f);
+            buffer.putFloat(0.0f);
+            buffer.putFloat((float) Math.sin(yaw / 2));
+            buffer.putFloat((float) Math.cos(yaw / 2));
+            if (version == MotiveVersion.V1_10_2) {
+                // no rigid body markers
+                buffer.putInt(0);
+            } else {
+                // marker error and tracking flags
+                buffer.putFloat(0.0f);
+                buffer.putShort((short) 1);
+            }
+        }
+        if (sized) {
+            buffer.putInt(sizePosition, buffer.position() - sizePosition - 4);
+        }
+        if (version == MotiveVersion.V3) {
+            // no skeletons, assets (NatNet 4.1 or higher), labeled markers,
+            // force plates or devices
+            putEmptySection(sized);
+            if (sized) {
+                putEmptySection(sized);
+            }
+            putEmptySection(sized);
+            putEmptySection(sized);
+            putEmptySection(sized);
+            // timecode and subframe
+            buffer.putInt(0);
+            buffer.putInt(0);
+            // timestamps, in nanoseconds as Motive clock ticks; the frame
+            // is "exposed" SYNTHETIC_MOTIVE_LATENCY before sending
+            buffer.putDouble(frameNumber / (double) Math.max(framesPerSecond, 1));
+            buffer.putLong(now - SYNTHETIC_MOTIVE_LATENCY);
+            buffer.putLong(now - SYNTHETIC_MOTIVE_LATENCY / 2);
+            buffer.putLong(now);
+            if (sized) {
+                // precision timestamp, in seconds and fraction
+                buffer.putInt(frameNumber / Math.max(framesPerSecond, 1));
+                buffer.putInt(0);
+            }
+            // params, then end of data
+            buffer.putShort((short) 0);
+            buffer.putInt(0);
+        }
+        buffer.putShort(2, (short) (buffer.position() - 4));
+        buffer.flip();
+    }
+
+    /**
+     * Writes the count of a frame section with no items, followed by its
+     * size in NatNet 4.1 or higher
+     */
+    private void putEmptySection(boolean sized) {
+        buffer.putInt(0);
+        if (sized) {
+            buffer.putInt(0);
+        }
+    }
+
+    /**
+     * Encodes a server information message announcing the source's NatNet
+     * version and a clock frequency of one tick per nanosecond
+     */
+    private void encodeServerInfo() {
+        buffer.clear();
+        buffer.putShort(MESSAGE_SERVER_INFO);
+        buffer.putShort((short) 0);
+        // server name, server version and NatNet version
+        byte[] name = "SyntheticFrameSource".getBytes();
+        buffer.put(name);
+        buffer.position(buffer.position() + 256 - name.length);
+        buffer.put(new byte[] { 3, 0, 0, 0 });
+        buffer.put(new byte[] { (byte) natNetMajor, (byte) natNetMinor, 0, 0 });
+        // high resolution clock frequency
+        buffer.putLong(1_000_000_000L);
+        buffer.putShort(2, (short) (buffer.position() - 4));
+        buffer.flip();
+    }
+
+    /**
+     * Encodes model definitions naming each body "Car N", using the
+     * layout of the manager's Motive version and the source's NatNet version
+     */
+    private void encodeModelDefinitions() {
+        final boolean sized = version == MotiveVersion.V3 && hasSizedSections();
+        buffer.clear();
+        buffer.putShort(MESSAGE_MODEL_DEF);
+        buffer.putShort((short) 0);
+        buffer.putInt(bodyCount);
+        for (int body = 0; body < bodyCount; body++) {
+            // a rigid body description
+            buffer.putInt(1);
+            int sizePosition = buffer.position();
+            if (sized) {
+                // description size, filled in below
+                buffer.putInt(0);
+            }
+            buffer.put(("Car " + body).getBytes());
+            buffer.put((byte) 0);
+            buffer.putInt(body);
+            // no parent, and no offset from it
+            buffer.putInt(-1);
+            buffer.putFloat(0.0f);
+            buffer.putFloat(0.0f);
+            buffer.putFloat(0.0f);
+            if (version != MotiveVersion.V1_10_2) {
+                // no markers
+                buffer.putInt(0);
+            }
+            if (sized) {
+                buffer.putInt(sizePosition, buffer.position() - sizePosition - 4);
+            }
+        }
+        buffer.putShort(2, (short) (buffer.position() - 4));
+        buffer.flip();
+    }
+
+    @Override
+    public void run() {
+        final long period = framesPerSecond > 0 ? 1_000_000_000L / framesPerSecond : 0;
+        long deadline = System.nanoTime();
+        encodeServerInfo();
+        manager.processPacket(buffer);
+        encodeModelDefinitions();
+        manager.processPacket(buffer);
+        for (int frameNumber = 0; ; frameNumber++) {
+            encodeFrame(frameNumber, System.nanoTime());
+            manager.processPacket(buffer);
+            framesSent++;
+            if (period > 0) {
+                deadline += period;
+                long wait = deadline - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+        }
+    }
+
+}